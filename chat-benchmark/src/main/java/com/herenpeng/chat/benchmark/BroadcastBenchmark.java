@@ -0,0 +1,88 @@
+package com.herenpeng.chat.benchmark;
+
+import com.herenpeng.chat.common.ChatMessageFormat;
+import com.herenpeng.chat.nio.ByteBufferPool;
+import com.herenpeng.chat.nio.ChatBuffer;
+import com.herenpeng.chat.protocol.ChatFrameCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 广播扇出基准测试
+ * <p>模拟 NIO 服务端的广播：一条消息放入每个接收者的发送队列，再模拟写出完成后释放。
+ * 不包含 socket 写出的系统调用，只衡量格式化、编码和入队的开销</p>
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BroadcastBenchmark {
+
+    /**
+     * 接收者数量
+     */
+    @Param({"10", "1000", "10000"})
+    private int recipients;
+
+    private List<Queue<ChatBuffer>> writeQueues;
+
+    private final ByteBufferPool pool = ByteBufferPool.DEFAULT;
+
+    @Setup
+    public void setup() {
+        writeQueues = new ArrayList<>(recipients);
+        for (int i = 0; i < recipients; i++) {
+            writeQueues.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * 消息只格式化、编码一次，所有接收者共享同一帧
+     */
+    @Benchmark
+    public int encodeOnce() {
+        ChatBuffer frame = ChatBuffer.encodeText(pool, ChatMessageFormat.formatChatMsg("herenpeng", "今天天气不错，一起去爬山吧！"));
+        for (Queue<ChatBuffer> writeQueue : writeQueues) {
+            writeQueue.add(frame.retain());
+        }
+        frame.release();
+        return drain();
+    }
+
+    /**
+     * 对照组：每个接收者单独格式化、编码一次
+     */
+    @Benchmark
+    public int encodePerRecipient() {
+        for (Queue<ChatBuffer> writeQueue : writeQueues) {
+            String sendMsg = ChatMessageFormat.formatChatMsg("herenpeng", "今天天气不错，一起去爬山吧！");
+            writeQueue.add(ChatBuffer.wrap(ChatFrameCodec.encodeText(sendMsg)));
+        }
+        return drain();
+    }
+
+    /**
+     * 模拟所有接收者写出完成，释放消息帧
+     *
+     * @return 写出的字节数
+     */
+    private int drain() {
+        int bytes = 0;
+        for (Queue<ChatBuffer> writeQueue : writeQueues) {
+            ChatBuffer frame = writeQueue.poll();
+            bytes += frame.length();
+            frame.release();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,68 @@
+package com.herenpeng.chat.benchmark;
+
+import com.herenpeng.chat.protocol.ChatFrame;
+import com.herenpeng.chat.protocol.ChatFrameCodec;
+import com.herenpeng.chat.protocol.ChatFrameDecoder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 帧解码基准测试，对应 readMsg 中每次读事件的解码
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameDecodeBenchmark {
+
+    /**
+     * 一次读事件中包含的消息条数
+     */
+    @Param({"1", "16"})
+    private int frames;
+
+    /**
+     * 模拟的单次读取大小，小于帧长度时会产生半包
+     */
+    @Param({"16", "4096"})
+    private int readSize;
+
+    private ByteBuffer input;
+
+    private ChatFrameDecoder decoder;
+
+    private final List<ChatFrame> out = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        ByteBuffer all = ByteBuffer.allocateDirect(frames * 128);
+        for (int i = 0; i < frames; i++) {
+            ChatFrameCodec.encodeText("（herenpeng） 12:00:00\n第" + i + "条消息\n---------------------------", all);
+        }
+        all.flip();
+        input = all;
+        decoder = new ChatFrameDecoder(ChatFrameCodec.MAX_FRAME_LENGTH);
+    }
+
+    @Benchmark
+    public int decode() throws IOException {
+        out.clear();
+        ByteBuffer buffer = input.duplicate();
+        int limit = buffer.limit();
+        while (buffer.position() < limit) {
+            buffer.limit(Math.min(limit, buffer.position() + readSize));
+            decoder.decode(buffer, out);
+        }
+        return out.size();
+    }
+}
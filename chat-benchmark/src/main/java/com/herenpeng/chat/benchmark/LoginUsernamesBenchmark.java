@@ -0,0 +1,74 @@
+package com.herenpeng.chat.benchmark;
+
+import com.herenpeng.chat.common.ChatRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 在线用户名列表基准测试，对应两种服务端的 getLoginUsernames
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoginUsernamesBenchmark {
+
+    /**
+     * 在线人数
+     */
+    @Param({"10", "1000", "10000"})
+    private int users;
+
+    /**
+     * 和 NIO 服务端相同的结构：按连接保存的并发 Map
+     */
+    private final Map<Long, User> userMap = new ConcurrentHashMap<>();
+
+    /**
+     * 和阻塞服务端相同的结构：成员注册表
+     */
+    private final ChatRegistry<User> userRegistry = new ChatRegistry<>();
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < users; i++) {
+            User user = new User(i % 10 == 0 ? null : "user" + i);
+            userMap.put((long) i, user);
+            userRegistry.add(i, user);
+        }
+    }
+
+    @Benchmark
+    public List<String> concurrentMap() {
+        return userMap.values().stream().map(User::getUsername).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<String> registrySnapshot() {
+        return userRegistry.snapshot().stream().map(User::getUsername).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    private static class User {
+
+        private final String username;
+
+        private User(String username) {
+            this.username = username;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.herenpeng.chat.benchmark;
+
+import com.herenpeng.chat.common.ChatMessageFormat;
+import com.herenpeng.chat.nio.ByteBufferPool;
+import com.herenpeng.chat.nio.ChatBuffer;
+import com.herenpeng.chat.protocol.ChatFrameCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息格式化和编码基准测试，对应 sendMsgToOtherUser 中每条消息的处理
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageEncodeBenchmark {
+
+    @Param({"短消息", "人生的路上，也许我们不惧伤身，但我们害怕伤心，也许我们不怕问题，但我们害怕丧失信心。黑夜来临，影响我们情绪的不是黑暗，而是孤独；寒风吹来，摧残我们意志的不是冰冷，而是心灵。"})
+    private String msg;
+
+    private final ByteBufferPool pool = ByteBufferPool.DEFAULT;
+
+    /**
+     * 只格式化，拼接用户名、时间和分隔符
+     */
+    @Benchmark
+    public String format() {
+        return ChatMessageFormat.formatChatMsg("herenpeng", msg);
+    }
+
+    /**
+     * 格式化并编码到池中的直接内存缓冲区，当前服务端的实现
+     */
+    @Benchmark
+    public int formatAndEncodePooled() {
+        ChatBuffer frame = ChatBuffer.encodeText(pool, ChatMessageFormat.formatChatMsg("herenpeng", msg));
+        int length = frame.length();
+        frame.release();
+        return length;
+    }
+
+    /**
+     * 对照组：格式化后 getBytes 再编码到堆内存
+     */
+    @Benchmark
+    public ByteBuffer formatAndEncodeHeap() {
+        return ChatFrameCodec.encodeText(ChatMessageFormat.formatChatMsg("herenpeng", msg));
+    }
+}
@@ -0,0 +1,86 @@
+package com.herenpeng.chat.benchmark;
+
+import com.herenpeng.chat.common.ChatRobot;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 机器人关键字回复基准测试，对应 ChatRobot.randomKeyWordReplyMsg
+ * <p>对比编译好的关键字匹配器和逐个关键字 contains 的循环</p>
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RobotKeyWordBenchmark {
+
+    /**
+     * 关键字数量
+     */
+    @Param({"2", "100", "5000"})
+    private int keyWords;
+
+    private ChatRobot robot;
+
+    private Map<String, List<String>> keyWordReplyMsgMap;
+
+    private final String missMsg = "今天天气不错，一起去爬山吧！晚上回来再一起吃个饭，顺便聊聊最近的工作。";
+
+    private final String hitMsg = "今天天气不错，一起去爬山吧！晚上回来再一起吃个饭，机器人也一起来吧。";
+
+    @Setup
+    public void setup() {
+        keyWordReplyMsgMap = new ConcurrentHashMap<>();
+        keyWordReplyMsgMap.put("机器人", Collections.singletonList("我在！"));
+        for (int i = 1; i < keyWords; i++) {
+            keyWordReplyMsgMap.put("关键字" + i, Collections.singletonList("回复" + i));
+        }
+        robot = new ChatRobot("机器人·风", new ArrayList<>(), new ArrayList<>(), keyWordReplyMsgMap);
+    }
+
+    @Benchmark
+    public String miss() {
+        return robot.randomKeyWordReplyMsg(missMsg);
+    }
+
+    @Benchmark
+    public String hit() {
+        return robot.randomKeyWordReplyMsg(hitMsg);
+    }
+
+    @Benchmark
+    public String containsLoopMiss() {
+        return containsLoop(missMsg);
+    }
+
+    @Benchmark
+    public String containsLoopHit() {
+        return containsLoop(hitMsg);
+    }
+
+    /**
+     * 对照组：遍历所有关键字，逐个调用 contains
+     *
+     * @param msg 消息
+     * @return 命中的关键字的第一条回复
+     */
+    private String containsLoop(String msg) {
+        for (Map.Entry<String, List<String>> entry : keyWordReplyMsgMap.entrySet()) {
+            if (msg.contains(entry.getKey())) {
+                return entry.getValue().get(0);
+            }
+        }
+        return null;
+    }
+}
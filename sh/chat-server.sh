@@ -1,5 +1,6 @@
 CHAT_SERVER_DIR=/usr/app/chat
-CHAT_SERVER=ChatServer
+CHAT_SERVER=com.herenpeng.chat.ChatServer
+CHAT_CLASSES_DIR=${CHAT_SERVER_DIR}/classes
 CHAT_LOG_FILE=${CHAT_SERVER_DIR}/chat.log
 # 聊天室启动参数
 CHAT_CFG=${2}
@@ -15,8 +16,9 @@ help() {
 }
 
 start() {
-	javac -encoding UTF-8 ${CHAT_SERVER}\.java
-	nohup java -Dfile.encoding=UTF-8 ${CHAT_SERVER} ${CHAT_CFG} >>${CHAT_LOG_FILE} 2>&1 &
+	mkdir -p ${CHAT_CLASSES_DIR}
+	javac -encoding UTF-8 -d ${CHAT_CLASSES_DIR} $(find ${CHAT_SERVER_DIR}/src -name "*.java")
+	nohup java -Dfile.encoding=UTF-8 -Dchat.log.file=${CHAT_LOG_FILE} -cp ${CHAT_CLASSES_DIR} ${CHAT_SERVER} ${CHAT_CFG} >>${CHAT_LOG_FILE} 2>&1 &
 	echo "服务${CHAT_SERVER}已启动"
 }
 
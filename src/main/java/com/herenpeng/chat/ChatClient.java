@@ -1,6 +1,9 @@
 package com.herenpeng.chat;
 
-import java.io.InputStream;
+import com.herenpeng.chat.protocol.ChatFrame;
+import com.herenpeng.chat.protocol.ChatFrameCodec;
+
+import java.io.DataInputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.util.Scanner;
@@ -21,9 +24,13 @@ public class ChatClient {
             Scanner scanner = new Scanner(System.in);
             System.out.println("请输入您的聊天室昵称：");
             while (true) {
-                String chat = scanner.next();
+                // 按行读取，一行是一条消息，消息中可以包含空格，比如 /join 房间名称
+                String chat = scanner.nextLine();
+                if (chat.isEmpty()) {
+                    continue;
+                }
                 System.out.println("---------------------------");
-                os.write(chat.getBytes());
+                ChatFrameCodec.writeText(os, chat);
             }
         } catch (Exception e) {
             System.out.println("【系统消息】聊天室炸了，BUG之神降临了");
@@ -34,12 +41,15 @@ public class ChatClient {
 
     private static void readMsg(Socket socket) {
         try {
-            while (true) {
-                InputStream is = socket.getInputStream();
-                byte[] bytes = new byte[1024];
-                int len = is.read(bytes);
-                System.out.println(new String(bytes, 0, len));
+            DataInputStream is = new DataInputStream(socket.getInputStream());
+            ChatFrame frame;
+            while ((frame = ChatFrameCodec.readFrame(is, ChatFrameCodec.MAX_SERVER_FRAME_LENGTH)) != null) {
+                if (frame.getType() == ChatFrameCodec.TYPE_TEXT) {
+                    System.out.println(frame.getText());
+                }
             }
+            System.out.println("【系统消息】你已退出聊天室，开始认真工作吧");
+            System.exit(0);
         } catch (Exception e) {
             System.out.println("【系统消息】你已退出聊天室，开始认真工作吧");
             System.exit(0);
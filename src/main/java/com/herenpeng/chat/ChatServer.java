@@ -1,14 +1,44 @@
 package com.herenpeng.chat;
 
+import com.herenpeng.chat.common.ChatClock;
+import com.herenpeng.chat.common.ChatCommand;
+import com.herenpeng.chat.common.ChatConfig;
+import com.herenpeng.chat.common.ChatJournal;
+import com.herenpeng.chat.common.ChatLogger;
+import com.herenpeng.chat.common.ChatMessageFormat;
+import com.herenpeng.chat.common.ChatMetrics;
+import com.herenpeng.chat.common.ChatOutboundLimit;
+import com.herenpeng.chat.common.ChatPresence;
+import com.herenpeng.chat.common.ChatRobot;
+import com.herenpeng.chat.common.ChatRoomHistory;
+import com.herenpeng.chat.common.ChatRegistry;
+import com.herenpeng.chat.common.ChatRoomRegistry;
+import com.herenpeng.chat.common.ChatUserIndex;
+import com.herenpeng.chat.protocol.ChatFrame;
+import com.herenpeng.chat.protocol.ChatFrameCodec;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.Method;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.text.SimpleDateFormat;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 聊天室服务端
@@ -18,6 +48,24 @@ import java.util.stream.Collectors;
  */
 public class ChatServer {
 
+    /**
+     * 连接处理的线程模式，可以通过 -Dchat.thread.mode 指定
+     * <p>thread：每个连接一个平台线程，默认模式</p>
+     * <p>virtual：每个连接一个虚拟线程，需要 JDK21 及以上，低版本 JDK 自动降级为 pool 模式</p>
+     * <p>pool：有界线程池，线程数通过 -Dchat.thread.poolSize 指定，超过线程数的连接会被拒绝</p>
+     */
+    private static final String THREAD_MODE = System.getProperty("chat.thread.mode", "thread");
+
+    /**
+     * pool 模式的线程池大小，每个在线用户独占一个线程，所以也是最大在线人数
+     */
+    private static final int THREAD_POOL_SIZE = Integer.getInteger("chat.thread.poolSize", 1000);
+
+    /**
+     * 执行每个连接读取循环的执行器
+     */
+    private static Executor connectionExecutor;
+
     /**
      * 启动类
      *
@@ -25,12 +73,30 @@ public class ChatServer {
      * @throws IOException 抛出IO异常
      */
     public static void main(String[] args) throws IOException {
+        connectionExecutor = newConnectionExecutor(THREAD_MODE);
         ServerSocket server = new ServerSocket(12345);
         new Thread(() -> start(server)).start();
         // 加载配置
         CHAT_CFG_RELOAD_PASSWORD = UUID.randomUUID().toString();
         logInfo("【系统消息】聊天室配置加载密钥：" + CHAT_CFG_RELOAD_PASSWORD);
         reloadChatCfg(args.length == 1 ? args[0] : null, null);
+        // 监听配置文件，文件修改后自动刷新配置
+        String chatCfgFile = System.getProperty("chat.config.file");
+        if (isNotEmpty(chatCfgFile)) {
+            ChatConfig.watch(Paths.get(chatCfgFile));
+        }
+        // 监控指标
+        ChatMetrics.start();
+        // 聊天记录日志
+        ChatJournal.start();
+        // 房间成员变化合并发送
+        presence.start();
+        // 写出超时检查
+        if (ChatOutboundLimit.WRITE_TIMEOUT_MILLIS > 0) {
+            Thread writeTimeoutChecker = new Thread(ChatServer::checkWriteTimeout, "chat-write-timeout");
+            writeTimeoutChecker.setDaemon(true);
+            writeTimeoutChecker.start();
+        }
         logInfo("【系统消息】聊天室启动成功了！");
     }
 
@@ -62,127 +128,281 @@ public class ChatServer {
     private static String CHAT_CFG_RELOAD_PASSWORD;
 
     /**
-     * 机器人是否开启的标识
+     * 保存所有用户socket的集合，按连接 id 保存，每个连接线程都会并发读写
      */
-    private static final String robotCfgKey = "robot";
+    private static final ChatRegistry<ChatSocket> userDB = new ChatRegistry<>();
+
     /**
-     * 机器人概率，值为5表示1/5的概率机器人回复
+     * 房间成员，房间内的消息只发送给房间成员
      */
-    private static final String robotProCfgKey = "robotPro";
-
-    private static final Map<String, String> chatCfg = new ConcurrentHashMap<>();
-
-    static {
-        // 是否开启机器人发送消息，默认不开启
-        chatCfg.put(robotCfgKey, "false");
-        chatCfg.put(robotProCfgKey, "5");
-    }
+    private static final ChatRoomRegistry<ChatSocket> roomDB = new ChatRoomRegistry<>();
 
     /**
-     * 通过配置 key 获取布尔类型的值
-     *
-     * @param cfgKey 配置key
-     * @return 布尔类型的值
+     * 房间最近的聊天记录，保存广播时编码好的消息帧，消息帧写出时不会被修改，可以直接重放
      */
-    private static boolean getBolByChatCfg(String cfgKey) {
-        String cfgValue = chatCfg.get(cfgKey);
-        return "true".equals(cfgValue);
-    }
+    private static final ChatRoomHistory<ByteBuffer> roomHistory = new ChatRoomHistory<>(ChatRoomHistory.CAPACITY, roomDB::contains);
 
     /**
-     * 通过配置 key 获取 int 类型的值
-     *
-     * @param cfgKey 配置key
-     * @return int 类型的值
+     * 房间成员名单，进入房间的用户收到完整名单，其他用户只收到合并后的成员变化
      */
-    private static int getIntByChatCfg(String cfgKey) {
-        String cfgValue = chatCfg.get(cfgKey);
-        return isEmpty(cfgValue) ? 0 : Integer.parseInt(cfgValue);
-    }
+    private static final ChatPresence presence = new ChatPresence(ChatServer::publishPresence);
 
+    /**
+     * 用户名索引，按用户名查找在线用户，保证用户名唯一
+     */
+    private static final ChatUserIndex<ChatSocket> userIndex = new ChatUserIndex<>();
 
     /**
-     * 保存所有用户socket的集合
+     * 连接 id 生成器
      */
-    private static final List<ChatSocket> userDB = new LinkedList<>();
+    private static final AtomicLong connectionId = new AtomicLong();
 
     /**
      * 聊天记录分隔符
      */
-    private static final String chatSeparate = "---------------------------";
+    private static final String chatSeparate = ChatMessageFormat.CHAT_SEPARATE;
 
     /**
-     * 给所有的用户发送系统消息
+     * 给房间内所有的用户发送系统消息
      *
-     * @param msg 系统消息
+     * @param room 房间名称
+     * @param msg  系统消息
      * @throws IOException 抛出异常
      */
-    private static void sendSysMsg(String msg) throws IOException {
-        for (ChatSocket chatSocket : userDB) {
-            String sysMsg = getCurrentTime() + "\n" + msg + "\n" + chatSeparate;
-            Socket socket = chatSocket.getSocket();
-            sendMsgToUser(socket, sysMsg);
-        }
+    private static void sendSysMsg(String room, String msg) throws IOException {
+        ChatJournal.append(ChatJournal.TYPE_SYSTEM, room, null, msg);
+        String sysMsg = ChatMessageFormat.formatSysMsg(msg);
+        broadcast(room, null, ChatFrameCodec.encodeText(sysMsg));
     }
 
     /**
-     * 发送消息给其他用户
+     * 发送消息给房间内的其他用户，并保存到房间的聊天记录中
      *
+     * @param room     房间名称
      * @param username 消息发送用户名称
      * @param self     消息发送的用户socket
      * @param msg      消息
      * @throws IOException 抛出异常
      */
-    private static void sendMsgToOtherUser(String username, Socket self, String msg) throws IOException {
-        for (ChatSocket chatSocket : userDB) {
-            Socket socket = chatSocket.getSocket();
-            if (socket.equals(self)) {
+    private static void sendMsgToOtherUser(String room, String username, ChatSocket self, String msg) throws IOException {
+        ChatJournal.append(ChatJournal.TYPE_CHAT, room, username, msg);
+        ByteBuffer frame = ChatFrameCodec.encodeText(ChatMessageFormat.formatChatMsg(username, msg));
+        // 保存和获取接收者是一个原子操作，和正在进入房间的用户不会漏发也不会重复
+        List<ChatSocket> members = roomHistory.record(room, frame, () -> roomDB.members(room));
+        broadcast(members, self, frame);
+    }
+
+    /**
+     * 在房间内广播一条已经编码好的消息，消息只格式化、编码一次，所有接收者写出同一份字节
+     * <p>遍历的是房间成员快照，其他线程同时进出房间不会影响本次广播；
+     * 某个接收者写出失败只关闭该接收者，由它自己的线程完成登出，不影响其他接收者</p>
+     *
+     * @param room  房间名称
+     * @param self  消息发送的用户，不会收到这条消息，为null时发送给房间内所有用户
+     * @param frame 编码好的消息帧
+     */
+    private static void broadcast(String room, ChatSocket self, ByteBuffer frame) {
+        broadcast(roomDB.members(room), self, frame);
+    }
+
+    /**
+     * 给房间成员快照广播一条已经编码好的消息
+     *
+     * @param members 房间成员快照
+     * @param self    消息发送的用户，不会收到这条消息，为null时发送给所有成员
+     * @param frame   编码好的消息帧
+     */
+    private static void broadcast(List<ChatSocket> members, ChatSocket self, ByteBuffer frame) {
+        long start = System.nanoTime();
+        for (ChatSocket chatSocket : members) {
+            if (chatSocket == self) {
                 continue;
             }
-            String sendMsg = "（" + username + "） " + getCurrentTime() + "\n" + msg + "\n" + chatSeparate;
-            sendMsgToUser(socket, sendMsg);
+            try {
+                sendMsgToUser(chatSocket, frame);
+            } catch (IOException e) {
+                remove(chatSocket);
+            }
         }
+        ChatMetrics.broadcast(System.nanoTime() - start);
     }
 
     /**
      * 给指定的用户发送消息，会自动在消息上下文拼接 消息发送时间，消息分隔符 等等
      *
-     * @param username 消息发送用户名称
-     * @param socket   消息发送的用户socket
-     * @param msg      消息
+     * @param username   消息发送用户名称
+     * @param chatSocket 消息发送的用户
+     * @param msg        消息
      * @throws IOException 抛出异常
      */
-    private static void sendMsgToUser(String username, Socket socket, String msg) throws IOException {
-        String sendMsg = "（" + username + "） " + getCurrentTime() + "\n" + msg + "\n" + chatSeparate;
-        sendMsgToUser(socket, sendMsg);
+    private static void sendMsgToUser(String username, ChatSocket chatSocket, String msg) throws IOException {
+        sendMsgToUser(chatSocket, ChatMessageFormat.formatChatMsg(username, msg));
     }
 
     /**
      * 给指定的用户发送消息，文本消息
      *
-     * @param socket  消息发送的用户socket
-     * @param sendMsg 消息
+     * @param chatSocket 消息发送的用户
+     * @param sendMsg    消息
+     * @throws IOException 抛出异常
+     */
+    private static void sendMsgToUser(ChatSocket chatSocket, String sendMsg) throws IOException {
+        sendMsgToUser(chatSocket, ChatFrameCodec.encodeText(sendMsg));
+    }
+
+    /**
+     * 给指定的用户发送系统消息，会自动在消息上下文拼接 消息发送时间，消息分隔符
+     *
+     * @param chatSocket 用户
+     * @param msg        系统消息
+     * @throws IOException 抛出异常
+     */
+    private static void sendSysMsgToUser(ChatSocket chatSocket, String msg) throws IOException {
+        sendMsgToUser(chatSocket, ChatMessageFormat.formatSysMsg(msg));
+    }
+
+    /**
+     * 给指定的用户发送编码好的消息帧
+     * <p>消息先放入用户的发送队列，拿到写锁的线程负责把队列写空，拿不到写锁说明已经有线程在写，
+     * 直接返回，由持有写锁的线程写出。对端不读取时只有持有写锁的那一个线程阻塞在写操作上，其他发送者不会被拖住</p>
+     * <p>队列积压超过{@link ChatOutboundLimit}的上限时，disconnect 策略登出该用户，
+     * 关闭连接后阻塞在写操作上的线程也会立即返回；drop-oldest 丢弃队列中最早的消息；drop-new 丢弃这条消息</p>
+     *
+     * @param chatSocket 消息发送的用户
+     * @param frame      消息帧，不会修改它的读写位置
+     * @throws IOException 抛出异常
+     */
+    private static void sendMsgToUser(ChatSocket chatSocket, ByteBuffer frame) throws IOException {
+        int length = frame.remaining();
+        Queue<ByteBuffer> writeQueue = chatSocket.getWriteQueue();
+        while (ChatOutboundLimit.isExceeded(chatSocket.getPendingMessages().get() + 1,
+                chatSocket.getPendingBytes().get() + length)) {
+            if (ChatOutboundLimit.isDisconnect()) {
+                evictSlowConsumer(chatSocket, "积压消息：" + chatSocket.getPendingMessages().get() + "条，"
+                        + chatSocket.getPendingBytes().get() + "字节");
+                return;
+            }
+            ByteBuffer oldest;
+            if (ChatOutboundLimit.isDropNew() || (oldest = writeQueue.poll()) == null) {
+                ChatMetrics.slowConsumerDropped();
+                return;
+            }
+            chatSocket.getPendingMessages().decrementAndGet();
+            chatSocket.getPendingBytes().addAndGet(-oldest.remaining());
+            ChatMetrics.slowConsumerDropped();
+        }
+        offer(chatSocket, frame);
+        flush(chatSocket);
+    }
+
+    /**
+     * 只把消息放入发送队列，不写出也不检查积压，可以在加入房间的锁内调用
+     *
+     * @param chatSocket 用户
+     * @param frame      消息帧，不会修改它的读写位置
+     */
+    private static void offer(ChatSocket chatSocket, ByteBuffer frame) {
+        chatSocket.getWriteQueue().add(frame);
+        chatSocket.getPendingMessages().incrementAndGet();
+        chatSocket.getPendingBytes().addAndGet(frame.remaining());
+    }
+
+    /**
+     * 拿到写锁时把发送队列写空，拿不到写锁说明已经有线程在写，直接返回
+     *
+     * @param chatSocket 用户
+     * @throws IOException 抛出异常
+     */
+    private static void flush(ChatSocket chatSocket) throws IOException {
+        Queue<ByteBuffer> writeQueue = chatSocket.getWriteQueue();
+        Lock writeLock = chatSocket.getWriteLock();
+        // 释放写锁之后再检查一次队列，避免其他线程在释放前放入的消息没有线程写出
+        while (!writeQueue.isEmpty() && writeLock.tryLock()) {
+            try {
+                // 队列中积攒的消息先写入缓冲区，最后一次刷新，多条小消息只需要一次系统调用
+                OutputStream os = chatSocket.getOutput();
+                ByteBuffer next;
+                while ((next = writeQueue.poll()) != null) {
+                    chatSocket.getPendingMessages().decrementAndGet();
+                    chatSocket.getPendingBytes().addAndGet(-next.remaining());
+                    // 缓冲区写满时 append 也会阻塞写出
+                    chatSocket.setWriteStartNanos(System.nanoTime());
+                    ChatFrameCodec.append(os, next);
+                    ChatMetrics.bytesOut(next.remaining());
+                    ChatMetrics.messageOut();
+                }
+                chatSocket.setWriteStartNanos(System.nanoTime());
+                os.flush();
+            } finally {
+                chatSocket.setWriteStartNanos(0);
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 检查所有用户正在进行的写操作，写出超时的用户按慢消费者断开，关闭连接后阻塞的写操作会立即返回
+     */
+    private static void checkWriteTimeout() {
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(ChatOutboundLimit.WRITE_TIMEOUT_MILLIS);
+        while (true) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(Math.max(100, ChatOutboundLimit.WRITE_TIMEOUT_MILLIS / 4));
+                long now = System.nanoTime();
+                for (ChatSocket chatSocket : userDB.snapshot()) {
+                    long writeStartNanos = chatSocket.getWriteStartNanos();
+                    if (writeStartNanos != 0 && now - writeStartNanos > timeoutNanos) {
+                        evictSlowConsumer(chatSocket, "写出超过" + ChatOutboundLimit.WRITE_TIMEOUT_MILLIS + "毫秒没有完成");
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                logInfo("【系统消息】检查写出超时发生了异常……");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 断开接收消息太慢的用户，多个发送线程同时发现时只断开一次
+     *
+     * @param chatSocket 用户
+     * @param reason     断开原因
      * @throws IOException 抛出异常
      */
-    private static void sendMsgToUser(Socket socket, String sendMsg) throws IOException {
-        OutputStream os = socket.getOutputStream();
-        os.write(sendMsg.getBytes());
+    private static void evictSlowConsumer(ChatSocket chatSocket, String reason) throws IOException {
+        if (logout(chatSocket)) {
+            logInfo("【系统消息】" + chatSocket.getUsername() + "接收消息太慢，已断开连接，" + reason);
+            ChatMetrics.slowConsumerEvicted();
+        }
     }
 
     /**
      * 将 socket 从服务器中移开
      *
      * @param self socket用户
+     * @return 本次调用移除了该用户返回true，已经被其他线程移除返回false
      */
-    private static void remove(Socket self) {
+    private static boolean remove(ChatSocket self) {
+        // 移除，多个线程可能同时移除同一个用户，只统计一次
+        boolean removed = userDB.remove(self.getId()) != null;
+        if (removed) {
+            ChatMetrics.connectionClosed();
+        }
         try {
-            // 先关闭
-            self.close();
-            // 移除
-            userDB.removeIf(chatSocket -> self == chatSocket.getSocket());
+            String room = self.getRoom();
+            if (roomDB.leave(room, self.getId())) {
+                roomHistory.remove(room);
+            }
+            presence.leave(room, self.getId());
+            userIndex.unregister(self.getUsername(), self);
+            // 关闭
+            self.getSocket().close();
         } catch (IOException e) {
             e.printStackTrace();
         }
+        return removed;
     }
 
     /**
@@ -192,11 +412,15 @@ public class ChatServer {
      */
     private static void close(ServerSocket server) {
         try {
-            for (ChatSocket chatSocket : userDB) {
+            for (ChatSocket chatSocket : userDB.snapshot()) {
                 chatSocket.getSocket().close();
             }
             server.close();
             userDB.clear();
+            roomDB.clear();
+            roomHistory.clear();
+            presence.clear();
+            userIndex.clear();
         } catch (IOException e) {
             logInfo("【系统消息】关闭聊天室资源发生了异常……");
             e.printStackTrace();
@@ -212,12 +436,13 @@ public class ChatServer {
      */
     private static ChatSocket connection(ServerSocket server) throws IOException {
         Socket socket = server.accept();
-        ChatSocket chatSocket = new ChatSocket(socket);
-        userDB.add(chatSocket);
-        sendMsgToUser(socket, "============================\n" +
+        ChatSocket chatSocket = new ChatSocket(connectionId.incrementAndGet(), socket);
+        userDB.add(chatSocket.getId(), chatSocket);
+        ChatMetrics.connectionOpened();
+        sendMsgToUser(chatSocket, "============================\n" +
                 "1、本聊天室仅为娱乐，请勿在该聊天室内谈论敏感内容，比如涉政，涉黄，账号密码等等！\n" +
                 "2、聊天室内容明文传输，聊天信息泄露本聊天室概不负责！\n" +
-                "3、本聊天室内容后台不做任何存储，聊天信息如果需要请自行保留！\n" +
+                "3、本聊天室后台只在内存中保留每个房间最近的聊天记录，默认不做持久化存储，聊天信息如果需要请自行保留！\n" +
                 "4、最终解释权归本聊天室所有！\n" +
                 "============================");
         return chatSocket;
@@ -229,64 +454,270 @@ public class ChatServer {
      * @param chatSocket ChatSocket 对象
      */
     private static void login(ChatSocket chatSocket) {
-        // 给每个用户一个线程处理
-        new Thread(() -> {
+        try {
+            // 给每个用户一个线程处理
+            connectionExecutor.execute(() -> chat(chatSocket));
+        } catch (RejectedExecutionException e) {
             Socket socket = chatSocket.getSocket();
-            String username = null;
+            logInfo("【系统消息】聊天室人数已满，拒绝连接：" + socket.getRemoteSocketAddress());
             try {
-                InputStream is = socket.getInputStream();
-                byte[] bytes = new byte[1024];
-                int len = readMsg(is, bytes);
-                if (len == -1) {
+                sendMsgToUser(chatSocket, "【系统消息】聊天室人数已满，请稍后再试");
+            } catch (IOException ex) {
+                logInfo("【系统消息】连接已断开：" + socket.getRemoteSocketAddress());
+            }
+            remove(chatSocket);
+        }
+    }
+
+    /**
+     * 用户聊天方法，阻塞读取用户的消息，直到用户退出
+     *
+     * @param chatSocket ChatSocket 对象
+     */
+    private static void chat(ChatSocket chatSocket) {
+        Socket socket = chatSocket.getSocket();
+        String username = null;
+        try {
+            DataInputStream is = new DataInputStream(socket.getInputStream());
+            username = readUsername(is, chatSocket);
+            if (username == null) {
+                logout(chatSocket);
+                return;
+            }
+            // 刷新配置
+            if (CHAT_CFG_RELOAD_PASSWORD.equals(username)) {
+                reloadChatCfg(is, chatSocket);
+                return;
+            }
+            // 登录后进入默认房间
+            joinRoom(chatSocket, ChatRoomRegistry.DEFAULT_ROOM, loginTip(username, chatSocket));
+            // 机器人欢迎
+            robotWelcome(ChatRoomRegistry.DEFAULT_ROOM, username);
+            while (true) {
+                String msg = readMsg(is);
+                if (msg == null) {
                     logout(chatSocket);
                     return;
                 }
-                username = new String(bytes, 0, len);
-                chatSocket.setUsername(username);
-                // 刷新配置
-                if (CHAT_CFG_RELOAD_PASSWORD.equals(username)) {
-                    reloadChatCfg(is, bytes, socket);
-                    return;
-                }
-                loginTip(username, socket);
-                // 机器人欢迎
-                robotWelcome(username);
-                while (true) {
-                    len = readMsg(is, bytes);
-                    if (len == -1) {
-                        logout(chatSocket);
-                        return;
-                    }
-                    String msg = new String(bytes, 0, len);
-                    sendMsgToOtherUser(username, socket, msg);
-                    // 机器人回复消息
-                    randomRobotReply(msg);
-                }
-            } catch (IOException e) {
-                try {
-                    logout(chatSocket);
-                } catch (Exception ex) {
-                    remove(socket);
-                    ex.printStackTrace();
+                ChatCommand command = ChatCommand.parse(msg);
+                if (command != null) {
+                    handleCommand(chatSocket, command);
+                    continue;
                 }
-                e.printStackTrace();
+                String room = chatSocket.getRoom();
+                sendMsgToOtherUser(room, username, chatSocket, msg);
+                // 机器人回复消息
+                randomRobotReply(room, msg);
+            }
+        } catch (IOException e) {
+            try {
+                logout(chatSocket);
+            } catch (Exception ex) {
+                remove(chatSocket);
+                ex.printStackTrace();
+            }
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 读取用户名登录，用户名不合法或者已被占用时要求重新输入
+     *
+     * @param is         输入流
+     * @param chatSocket 用户
+     * @return 登录成功的用户名，或者配置刷新密钥，连接关闭返回null
+     * @throws IOException 抛出异常
+     */
+    private static String readUsername(DataInputStream is, ChatSocket chatSocket) throws IOException {
+        while (true) {
+            String username = readMsg(is);
+            if (username == null) {
+                return null;
+            }
+            if (CHAT_CFG_RELOAD_PASSWORD.equals(username)) {
+                chatSocket.setUsername(username);
+                return username;
+            }
+            if (!ChatUserIndex.isValidName(username)) {
+                sendSysMsgToUser(chatSocket, "【系统消息】昵称不能包含空白字符，不能以/开头，最长"
+                        + ChatUserIndex.MAX_USERNAME_LENGTH + "个字符，请重新输入");
+            } else if (userIndex.register(username, chatSocket)) {
+                chatSocket.setUsername(username);
+                return username;
+            } else {
+                sendSysMsgToUser(chatSocket, "【系统消息】昵称" + username + "已被使用，请重新输入");
+            }
+        }
+    }
+
+    /**
+     * 处理聊天室命令
+     *
+     * @param chatSocket 发送命令的用户
+     * @param command    命令
+     * @throws IOException 抛出异常
+     */
+    private static void handleCommand(ChatSocket chatSocket, ChatCommand command) throws IOException {
+        if (ChatCommand.MSG.equals(command.getName())) {
+            sendPrivateMsg(chatSocket, command.getTarget(), command.getText());
+            return;
+        }
+        if (ChatCommand.GET.equals(command.getName())) {
+            // 文件传输需要 SocketChannel，阻塞 IO 的服务端不支持，上传的文件帧在读取时直接丢弃
+            sendSysMsgToUser(chatSocket, "【系统消息】当前服务端不支持文件传输，请使用 NIO 服务端");
+            return;
+        }
+        String room;
+        if (ChatCommand.JOIN.equals(command.getName())) {
+            room = command.getArgument();
+            if (!ChatRoomRegistry.isValidName(room)) {
+                sendSysMsgToUser(chatSocket, "【系统消息】房间名称不能为空，不能包含空白字符，最长"
+                        + ChatRoomRegistry.MAX_ROOM_NAME_LENGTH + "个字符");
+                return;
+            }
+        } else {
+            room = ChatRoomRegistry.DEFAULT_ROOM;
+        }
+        if (room.equals(chatSocket.getRoom())) {
+            sendSysMsgToUser(chatSocket, "【系统消息】你已经在房间：" + room);
+            return;
+        }
+        leaveRoom(chatSocket);
+        joinRoom(chatSocket, room, "【系统消息】" + chatSocket.getUsername() + "已加入房间：" + room);
+    }
+
+    /**
+     * 给进入房间的用户重放房间最近的聊天记录，直接发送保存的消息帧，不需要重新格式化和编码
+     * <p>在加入房间的锁内调用，只放入发送队列，由调用者在锁外写出</p>
+     *
+     * @param chatSocket 进入房间的用户
+     * @param frames     聊天记录快照
+     */
+    private static void replayHistory(ChatSocket chatSocket, List<ByteBuffer> frames) {
+        if (frames.isEmpty()) {
+            return;
+        }
+        String tip = ChatMessageFormat.formatSysMsg("【系统消息】房间最近的" + frames.size() + "条聊天记录：");
+        offer(chatSocket, ChatFrameCodec.encodeText(tip));
+        for (ByteBuffer frame : frames) {
+            offer(chatSocket, frame);
+        }
+    }
+
+    /**
+     * 发送私信，通过用户名索引直接找到接收者，不需要遍历在线用户
+     *
+     * @param self   发送私信的用户
+     * @param target 接收者用户名
+     * @param msg    私信
+     * @throws IOException 抛出异常
+     */
+    private static void sendPrivateMsg(ChatSocket self, String target, String msg) throws IOException {
+        if (isEmpty(target) || isEmpty(msg)) {
+            sendSysMsgToUser(self, "【系统消息】私信格式：/msg 用户名 消息");
+            return;
+        }
+        ChatSocket chatSocket = userIndex.get(target);
+        if (chatSocket == null) {
+            sendSysMsgToUser(self, "【系统消息】用户" + target + "不在线");
+            return;
+        }
+        if (chatSocket == self) {
+            sendSysMsgToUser(self, "【系统消息】不能给自己发私信");
+            return;
+        }
+        ChatJournal.append(ChatJournal.TYPE_PRIVATE, target, self.getUsername(), msg);
+        try {
+            sendMsgToUser(chatSocket, ChatMessageFormat.formatPrivateMsg(self.getUsername(), msg));
+        } catch (IOException e) {
+            // 接收者的连接已经断开，只关闭接收者，不影响发送者
+            remove(chatSocket);
+            sendSysMsgToUser(self, "【系统消息】用户" + target + "不在线");
+        }
+    }
+
+    /**
+     * 进入房间，给用户发送提示、成员名单和房间最近的聊天记录，只在用户自己的连接线程中调用
+     * <p>获取聊天记录快照、放入发送队列和加入房间成员在房间的记录上原子执行，同时保存的消息要么在快照中，
+     * 要么实时收到，不会丢失也不会重复，实时收到的消息都排在重放的聊天记录后面</p>
+     *
+     * @param chatSocket 用户
+     * @param room       房间名称
+     * @param msg        提示消息
+     * @throws IOException 抛出异常
+     */
+    private static void joinRoom(ChatSocket chatSocket, String room, String msg) throws IOException {
+        chatSocket.setRoom(room);
+        presence.join(room, chatSocket.getId(), chatSocket.getUsername());
+        roomTip(chatSocket, room, msg);
+        roomHistory.join(room, history -> {
+            replayHistory(chatSocket, history);
+            roomDB.join(room, chatSocket.getId(), chatSocket);
+        });
+        flush(chatSocket);
+    }
+
+    /**
+     * 离开当前房间，房间内的其他用户会收到成员变化
+     *
+     * @param chatSocket 用户
+     */
+    private static void leaveRoom(ChatSocket chatSocket) {
+        String room = chatSocket.getRoom();
+        if (room == null) {
+            return;
+        }
+        if (roomDB.leave(room, chatSocket.getId())) {
+            roomHistory.remove(room);
+        }
+        chatSocket.setRoom(null);
+        presence.leave(room, chatSocket.getId());
+    }
+
+    /**
+     * 创建执行连接读取循环的执行器
+     *
+     * @param threadMode 线程模式
+     * @return 执行器
+     */
+    private static Executor newConnectionExecutor(String threadMode) {
+        if ("virtual".equals(threadMode)) {
+            try {
+                // 通过反射调用，保证低版本 JDK 也可以编译运行
+                Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                logInfo("【系统消息】连接处理线程模式：virtual");
+                return (Executor) method.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                logInfo("【系统消息】当前 JDK 不支持虚拟线程，降级为 pool 模式");
+                threadMode = "pool";
             }
-        }).start();
+        }
+        if ("pool".equals(threadMode)) {
+            logInfo("【系统消息】连接处理线程模式：pool，线程数：" + THREAD_POOL_SIZE);
+            AtomicInteger threadIndex = new AtomicInteger();
+            return new ThreadPoolExecutor(THREAD_POOL_SIZE, THREAD_POOL_SIZE, 60L, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(), task -> new Thread(task, "chat-user-" + threadIndex.incrementAndGet()));
+        }
+        logInfo("【系统消息】连接处理线程模式：thread");
+        return task -> new Thread(task).start();
     }
 
     /**
-     * 登出操作
+     * 登出操作，同一个用户只通知一次
      *
      * @param chatSocket chatSocket对象
+     * @return 本次调用登出了该用户返回true，已经登出过返回false
      */
-    private static void logout(ChatSocket chatSocket) throws IOException {
-        remove(chatSocket.getSocket());
+    private static boolean logout(ChatSocket chatSocket) throws IOException {
+        String room = chatSocket.getRoom();
+        if (!remove(chatSocket)) {
+            return false;
+        }
         String username = chatSocket.getUsername();
-        if (isNotEmpty(username)) {
-            String msg = "【系统消息】" + username + "已退出聊天室";
-            logInfo(msg);
-            sendSysMsg(msg);
+        if (isNotEmpty(username) && room != null) {
+            logInfo("【系统消息】" + username + "已退出聊天室");
         }
+        return true;
     }
 
     /**
@@ -294,18 +725,16 @@ public class ChatServer {
      * <p>在聊天名称中输入{@link ChatServer#CHAT_CFG_RELOAD_PASSWORD}</p>
      * <p>而后输入配置文件，格式为：key1=value2&key2=value2</p>
      *
-     * @param is    输入流
-     * @param bytes 字节数组
-     * @param self  socket对象
+     * @param is   输入流
+     * @param self 用户对象
      * @throws IOException 抛出异常
      */
-    private static void reloadChatCfg(InputStream is, byte[] bytes, Socket self) throws IOException {
+    private static void reloadChatCfg(DataInputStream is, ChatSocket self) throws IOException {
         sendMsgToUser(self, "【系统消息】请输入需要刷新的聊天室配置");
-        int len = readMsg(is, bytes);
-        if (len == -1) {
+        String reloadCfg = readMsg(is);
+        if (reloadCfg == null) {
             return;
         }
-        String reloadCfg = new String(bytes, 0, len);
         reloadChatCfg(reloadCfg, self);
     }
 
@@ -313,28 +742,18 @@ public class ChatServer {
      * 刷新聊天室的配置
      *
      * @param chatCfgStr 配置字符串
-     * @param self       socket对象
+     * @param self       用户对象
      * @throws IOException 抛出异常
      */
-    private static void reloadChatCfg(String chatCfgStr, Socket self) throws IOException {
+    private static void reloadChatCfg(String chatCfgStr, ChatSocket self) throws IOException {
         if (isEmpty(chatCfgStr)) {
             return;
         }
-        String[] cfgList = chatCfgStr.split("&");
-        for (String cfgStr : cfgList) {
-            String[] cfg = cfgStr.split("=");
-            if (cfg.length != 2) {
-                continue;
-            }
-            String key = cfg[0];
-            if (chatCfg.containsKey(key)) {
-                chatCfg.put(key, cfg[1]);
-            }
-        }
+        ChatConfig config = ChatConfig.update(ChatConfig.parse(chatCfgStr));
         // 刷新完配置发送通知
         StringBuilder sb = new StringBuilder();
         sb.append("【系统消息】聊天室配置已刷新\n");
-        for (Map.Entry<String, String> entry : chatCfg.entrySet()) {
+        for (Map.Entry<String, String> entry : config.toMap().entrySet()) {
             sb.append("配置").append(entry.getKey()).append("当前值为：").append(entry.getValue()).append("\n");
         }
         sb.append(chatSeparate);
@@ -347,50 +766,72 @@ public class ChatServer {
     }
 
     /**
-     * 读取消息的方法
+     * 读取消息的方法，按帧读取，一次返回一条完整的文本消息
      *
-     * @param is    输入流
-     * @param bytes 字节数组
-     * @return 读取的长度
+     * @param is 输入流
+     * @return 文本消息，连接关闭或者读取异常返回null
      */
-    private static int readMsg(InputStream is, byte[] bytes) {
-        int len;
+    private static String readMsg(DataInputStream is) {
         try {
-            len = is.read(bytes);
+            ChatFrame frame;
+            while ((frame = ChatFrameCodec.readFrame(is, ChatFrameCodec.MAX_FRAME_LENGTH)) != null) {
+                ChatMetrics.messagesIn(1, ChatFrameCodec.HEADER_LENGTH + frame.getPayload().length);
+                if (frame.getType() == ChatFrameCodec.TYPE_TEXT) {
+                    return frame.getText();
+                }
+            }
         } catch (Exception e) {
-            return -1;
+            return null;
         }
-        return len;
+        return null;
     }
 
     /**
-     * 用户登录时，发送系统提示
+     * 用户登录时的系统提示，同时记录日志
      *
      * @param username 用户名
+     * @return 系统提示
+     */
+    private static String loginTip(String username, ChatSocket chatSocket) {
+        String msg = "【系统消息】" + username + "已加入聊天室";
+        logInfo(msg + "\n远端主机地址：" + chatSocket.getSocket().getRemoteSocketAddress());
+        return msg;
+    }
+
+    /**
+     * 用户进入房间时，给该用户发送系统提示和完整的房间成员名单
+     * <p>房间内的其他用户只收到合并后的成员变化，见{@link ChatPresence}</p>
+     *
+     * @param chatSocket 进入房间的用户
+     * @param room       房间名称
+     * @param msg        提示消息
      * @throws IOException 抛出异常
      */
-    private static void loginTip(String username, Socket socket) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        sb.append("【系统消息】").append(username).append("已加入聊天室\n");
-        logInfo(sb + "远端主机地址：" + socket.getRemoteSocketAddress());
-        sb.append("当前聊天室成员有：\n");
-        List<String> usernameList = getLoginUsernames();
-        for (int i = 0; i < usernameList.size(); i++) {
-            sb.append(i + 1).append("、").append(usernameList.get(i));
-            if (i < usernameList.size() - 1) {
-                sb.append("\n");
-            }
+    private static void roomTip(ChatSocket chatSocket, String room, String msg) throws IOException {
+        sendSysMsgToUser(chatSocket, msg + "\n" + presence.roster(room));
+    }
+
+    /**
+     * 给房间内所有用户发送成员变化
+     *
+     * @param room 房间名称
+     * @param msg  成员变化
+     */
+    private static void publishPresence(String room, String msg) {
+        try {
+            sendSysMsg(room, msg);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        sendSysMsg(sb.toString());
     }
 
     /**
-     * 打印日志
+     * 打印日志，异步写出，不会阻塞调用线程
      *
      * @param message 日志信息
      */
     private static void logInfo(String message) {
-        System.out.println(getCurrentDateTime() + " " + message);
+        ChatLogger.log(message);
     }
 
     /**
@@ -454,22 +895,22 @@ public class ChatServer {
     /**
      * 机器人列表
      */
-    private static final List<Robot> robotList = new ArrayList<>();
+    private static final List<ChatRobot> robotList = new ArrayList<>();
 
     static {
-        Robot robot1 = new Robot("机器人·风", replyMsgList, nightReplyMsgList, keyWordReplyMsgMap);
+        ChatRobot robot1 = new ChatRobot("机器人·风", replyMsgList, nightReplyMsgList, keyWordReplyMsgMap);
         robotList.add(robot1);
 
-        Robot robot2 = new Robot("机器人·雪", replyMsgList, nightReplyMsgList, keyWordReplyMsgMap);
+        ChatRobot robot2 = new ChatRobot("机器人·雪", replyMsgList, nightReplyMsgList, keyWordReplyMsgMap);
         robotList.add(robot2);
 
-        Robot robot3 = new Robot("机器人·雪", replyMsgList, nightReplyMsgList, keyWordReplyMsgMap);
+        ChatRobot robot3 = new ChatRobot("机器人·雪", replyMsgList, nightReplyMsgList, keyWordReplyMsgMap);
         robotList.add(robot3);
 
-        Robot robot4 = new Robot("机器人·月", replyMsgList, nightReplyMsgList, keyWordReplyMsgMap);
+        ChatRobot robot4 = new ChatRobot("机器人·月", replyMsgList, nightReplyMsgList, keyWordReplyMsgMap);
         robotList.add(robot4);
 
-        Robot robot5 = new Robot("机器人·马云", replyMsgList, null, keyWordReplyMsgMap);
+        ChatRobot robot5 = new ChatRobot("机器人·马云", replyMsgList, null, keyWordReplyMsgMap);
         robotList.add(robot5);
     }
 
@@ -478,7 +919,7 @@ public class ChatServer {
      *
      * @return 机器人
      */
-    private static Robot randomRobot() {
+    private static ChatRobot randomRobot() {
         int i = random.nextInt(robotList.size());
         return robotList.get(i);
     }
@@ -486,11 +927,12 @@ public class ChatServer {
     /**
      * 机器人欢迎语
      *
+     * @param room     用户进入的房间
      * @param username 登入的用户
      * @throws IOException 抛出异常
      */
-    private static void robotWelcome(String username) throws IOException {
-        if (!getBolByChatCfg(robotCfgKey)) {
+    private static void robotWelcome(String room, String username) throws IOException {
+        if (!ChatConfig.current().isRobot()) {
             return;
         }
         String welcomeMsg;
@@ -505,26 +947,27 @@ public class ChatServer {
         } else {
             welcomeMsg = "欢迎" + username + "进入聊天室";
         }
-        sendMsgToOtherUser(randomRobot().getUsername(), null, welcomeMsg);
+        sendMsgToOtherUser(room, randomRobot().getUsername(), null, welcomeMsg);
     }
 
 
     /**
      * 随机机器人回复消息
      *
-     * @param msg 用户发的消息
+     * @param room 消息所在的房间
+     * @param msg  用户发的消息
      */
-    private static void randomRobotReply(String msg) throws IOException {
-        if (!getBolByChatCfg(robotCfgKey)) {
+    private static void randomRobotReply(String room, String msg) throws IOException {
+        if (!ChatConfig.current().isRobot()) {
             return;
         }
-        Robot robot = randomRobot();
+        ChatRobot robot = randomRobot();
         // 随机一条关键字消息回复，如果回复了关键字，就不回复其他消息
         String sendMsg = robot.randomKeyWordReplyMsg(msg);
-        // 获取概率，因为默认值为0，所以需要进行一下判断
-        int robotProCfgValue = getIntByChatCfg(ChatServer.robotProCfgKey);
+        // 获取概率，配置为小于等于0时只回复关键字，random.nextInt 也不接受0
+        int robotProCfgValue = ChatConfig.current().getRobotPro();
         if (isEmpty(sendMsg) && robotProCfgValue > 0) {
-            // 五分之一的概率会回复消息
+            // 按配置的概率回复消息，默认五分之一
             int i = random.nextInt(robotProCfgValue);
             if (i == 0) {
                 if (isNight()) {
@@ -535,19 +978,10 @@ public class ChatServer {
             }
         }
         if (sendMsg != null) {
-            sendMsgToOtherUser(robot.getUsername(), null, sendMsg);
+            sendMsgToOtherUser(room, robot.getUsername(), null, sendMsg);
         }
     }
 
-    /**
-     * 获取当前在线的所有玩家名称
-     *
-     * @return 当前在线的所有玩家名称
-     */
-    private static List<String> getLoginUsernames() {
-        return userDB.stream().map(ChatSocket::getUsername).filter(Objects::nonNull).collect(Collectors.toList());
-    }
-
 
     /**
      * 判断时间是否是 11:00 - 04:59 晚上
@@ -555,35 +989,10 @@ public class ChatServer {
      * @return 是返回true，否则返回false
      */
     private static boolean isNight() {
-        Calendar calendar = Calendar.getInstance();
-        int hour = calendar.get(Calendar.HOUR_OF_DAY);
+        int hour = ChatClock.getHour();
         return hour >= 23 || hour <= 4;
     }
 
-    /**
-     * 时间格式化对象
-     */
-    private static final SimpleDateFormat timeSdf = new SimpleDateFormat("HH:mm:ss");
-    private static final SimpleDateFormat DateTimeSdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-
-    /**
-     * 获取当前的时间的格式化字符串
-     *
-     * @return 当前的时间的格式化字符串
-     */
-    private static synchronized String getCurrentTime() {
-        return timeSdf.format(new Date());
-    }
-
-    /**
-     * 获取当前的日期时间的格式化字符串
-     *
-     * @return 当前的日期时间的格式化字符串
-     */
-    private static synchronized String getCurrentDateTime() {
-        return DateTimeSdf.format(new Date());
-    }
-
     /**
      * 判断一个字符串是否为空
      *
@@ -605,88 +1014,91 @@ public class ChatServer {
     }
 
     /**
-     * 机器人对象
+     * 封装的 ChatSocket
      */
-    private static class Robot {
-        // 机器人名称
-        private final String username;
-        // 机器人随机回复
-        private final List<String> replyMsgList;
-        // 机器人晚上回复
-        private final List<String> nightReplyMsgList;
-        // 机器人关键字回复
-        private final Map<String, List<String>> keyWordReplyMsgMap;
+    private static class ChatSocket {
 
-        public Robot(String username, List<String> replyMsgList, List<String> nightReplyMsgList, Map<String, List<String>> keyWordReplyMsgMap) {
-            this.username = username;
-            this.replyMsgList = replyMsgList;
-            this.nightReplyMsgList = nightReplyMsgList;
-            this.keyWordReplyMsgMap = keyWordReplyMsgMap;
-        }
+        /**
+         * 连接 id
+         */
+        private final long id;
 
-        public String getUsername() {
-            return username;
-        }
+        private final Socket socket;
 
         /**
-         * 随机一条回复消息
-         *
-         * @return 回复消息，没有消息返回null
+         * 带缓冲的输出流，只在持有写锁时访问
          */
-        public String randomReplyMsg() {
-            if (this.replyMsgList.isEmpty()) {
-                return null;
-            }
-            int i = random.nextInt(this.replyMsgList.size());
-            return this.replyMsgList.get(i);
-        }
+        private final OutputStream output;
 
         /**
-         * 随机一条晚上回复的消息
-         *
-         * @return 晚上回复的消息，没有消息返回null
+         * 输出流的写锁，保证多个线程给同一个用户发消息时帧不会交错
+         * <p>使用 ReentrantLock 而不是 synchronized，虚拟线程在锁内阻塞写时不会固定载体线程</p>
          */
-        public String randomNightReplyMsg() {
-            if (this.nightReplyMsgList.isEmpty()) {
-                return null;
-            }
-            int i = random.nextInt(this.nightReplyMsgList.size());
-            return this.nightReplyMsgList.get(i);
-        }
+        private final Lock writeLock = new ReentrantLock();
 
         /**
-         * 根据消息随机一条回复消息，
-         *
-         * @param msg 消息
-         * @return 没有命中关键字活着没有消息返回null
+         * 待发送的消息队列，任意线程都可以放入，持有写锁的线程写出
          */
-        public String randomKeyWordReplyMsg(String msg) {
-            if (this.keyWordReplyMsgMap.isEmpty()) {
-                return null;
-            }
-            // 触发关键字回复消息
-            for (Map.Entry<String, List<String>> entry : this.keyWordReplyMsgMap.entrySet()) {
-                if (msg.contains(entry.getKey())) {
-                    List<String> msgList = entry.getValue();
-                    int i = random.nextInt(msgList.size());
-                    return msgList.get(i);
-                }
-            }
-            return null;
-        }
-    }
+        private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
 
-    /**
-     * 封装的 ChatSocket
-     */
-    private static class ChatSocket {
+        /**
+         * 发送队列中的消息条数，ConcurrentLinkedQueue 的 size 需要遍历队列，所以单独计数
+         */
+        private final AtomicInteger pendingMessages = new AtomicInteger();
 
-        private final Socket socket;
+        /**
+         * 发送队列中的消息字节数
+         */
+        private final AtomicLong pendingBytes = new AtomicLong();
 
-        private String username;
+        /**
+         * 当前写操作开始的时间，没有在写为0
+         */
+        private volatile long writeStartNanos;
 
-        public ChatSocket(Socket socket) {
+        private volatile String username;
+
+        /**
+         * 当前所在的房间，只在用户自己的连接线程中修改
+         */
+        private volatile String room;
+
+        public ChatSocket(long id, Socket socket) throws IOException {
+            this.id = id;
             this.socket = socket;
+            this.output = new BufferedOutputStream(socket.getOutputStream(), 8 * 1024);
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public long getWriteStartNanos() {
+            return writeStartNanos;
+        }
+
+        public void setWriteStartNanos(long writeStartNanos) {
+            this.writeStartNanos = writeStartNanos;
+        }
+
+        public Queue<ByteBuffer> getWriteQueue() {
+            return writeQueue;
+        }
+
+        public AtomicInteger getPendingMessages() {
+            return pendingMessages;
+        }
+
+        public AtomicLong getPendingBytes() {
+            return pendingBytes;
+        }
+
+        public Lock getWriteLock() {
+            return writeLock;
+        }
+
+        public OutputStream getOutput() {
+            return output;
         }
 
         public Socket getSocket() {
@@ -700,6 +1112,14 @@ public class ChatServer {
         public void setUsername(String username) {
             this.username = username;
         }
+
+        public String getRoom() {
+            return room;
+        }
+
+        public void setRoom(String room) {
+            this.room = room;
+        }
     }
 
 }
@@ -0,0 +1,100 @@
+package com.herenpeng.chat.common;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 聊天室时钟，缓存当前秒的格式化时间
+ * <p>时间只精确到秒，同一秒内所有线程共用同一份格式化结果，每秒最多格式化一次。
+ * 缓存通过 volatile 引用发布不可变对象，刷新和读取都不需要加锁，
+ * 多个线程同时发现秒数变化时可能会重复格式化，结果相同，不影响正确性</p>
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public final class ChatClock {
+
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    /**
+     * 当前秒的缓存
+     */
+    private static volatile Tick tick = new Tick(currentSecond());
+
+    private ChatClock() {
+    }
+
+    /**
+     * 获取当前的时间的格式化字符串
+     *
+     * @return 当前的时间的格式化字符串，格式为 HH:mm:ss
+     */
+    public static String getCurrentTime() {
+        return current().time;
+    }
+
+    /**
+     * 获取当前的日期时间的格式化字符串
+     *
+     * @return 当前的日期时间的格式化字符串，格式为 yyyy-MM-dd HH:mm:ss
+     */
+    public static String getCurrentDateTime() {
+        return current().dateTime;
+    }
+
+    /**
+     * 获取当前的小时数
+     *
+     * @return 当前的小时数，0 - 23
+     */
+    public static int getHour() {
+        return current().hour;
+    }
+
+    /**
+     * 获取当前秒的缓存，秒数变化时重新格式化
+     *
+     * @return 当前秒的缓存
+     */
+    private static Tick current() {
+        long second = currentSecond();
+        Tick current = tick;
+        if (current.second != second) {
+            current = new Tick(second);
+            tick = current;
+        }
+        return current;
+    }
+
+    private static long currentSecond() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    /**
+     * 某一秒的格式化结果，不可变
+     */
+    private static class Tick {
+
+        private final long second;
+
+        private final String time;
+
+        private final String dateTime;
+
+        private final int hour;
+
+        private Tick(long second) {
+            ZonedDateTime now = Instant.ofEpochSecond(second).atZone(ZONE);
+            this.second = second;
+            this.time = TIME_FORMATTER.format(now);
+            this.dateTime = DATE_TIME_FORMATTER.format(now);
+            this.hour = now.getHour();
+        }
+    }
+}
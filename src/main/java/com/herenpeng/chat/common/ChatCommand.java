@@ -0,0 +1,94 @@
+package com.herenpeng.chat.common;
+
+/**
+ * 聊天室命令，以 / 开头的消息，两种服务端共用
+ * <p>/join 房间名称：进入房间，同一时间只在一个房间内</p>
+ * <p>/leave：离开当前房间，回到{@link ChatRoomRegistry#DEFAULT_ROOM}</p>
+ * <p>/msg 用户名 消息：给一个在线用户发送私信</p>
+ * <p>/get 文件 id：下载房间内分享的文件，只有 NIO 服务端支持</p>
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public class ChatCommand {
+
+    public static final String JOIN = "/join";
+
+    public static final String LEAVE = "/leave";
+
+    public static final String MSG = "/msg";
+
+    public static final String GET = "/get";
+
+    /**
+     * 命令名称
+     */
+    private final String name;
+
+    /**
+     * 命令参数，没有参数为空字符串
+     */
+    private final String argument;
+
+    private ChatCommand(String name, String argument) {
+        this.name = name;
+        this.argument = argument;
+    }
+
+    /**
+     * 解析命令，不是已知命令的消息当作普通聊天消息
+     *
+     * @param msg 消息
+     * @return 命令，不是命令返回null
+     */
+    public static ChatCommand parse(String msg) {
+        if (msg == null || msg.isEmpty() || msg.charAt(0) != '/') {
+            return null;
+        }
+        String trimmed = msg.trim();
+        int space = indexOfWhitespace(trimmed);
+        String name = space < 0 ? trimmed : trimmed.substring(0, space);
+        if (!JOIN.equals(name) && !LEAVE.equals(name) && !MSG.equals(name) && !GET.equals(name)) {
+            return null;
+        }
+        String argument = space < 0 ? "" : trimmed.substring(space + 1).trim();
+        return new ChatCommand(name, argument);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getArgument() {
+        return argument;
+    }
+
+    /**
+     * 参数中的第一个词，比如 /msg 命令的接收者
+     *
+     * @return 第一个词，没有参数为空字符串
+     */
+    public String getTarget() {
+        int space = indexOfWhitespace(argument);
+        return space < 0 ? argument : argument.substring(0, space);
+    }
+
+    /**
+     * 参数中第一个词之后的内容，比如 /msg 命令的消息
+     *
+     * @return 第一个词之后的内容，没有为空字符串
+     */
+    public String getText() {
+        int space = indexOfWhitespace(argument);
+        return space < 0 ? "" : argument.substring(space + 1).trim();
+    }
+
+    private static int indexOfWhitespace(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.isWhitespace(s.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
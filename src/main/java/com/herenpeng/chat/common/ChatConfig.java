@@ -0,0 +1,246 @@
+package com.herenpeng.chat.common;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 聊天室配置，两种服务端共用
+ * <p>配置解析一次后保存为不可变的快照，通过原子引用发布，读取配置只是一次 volatile 读，不需要解析字符串。
+ * 修改配置时基于当前快照生成新的快照再整体替换，读取方要么看到全部旧值，要么看到全部新值</p>
+ * <p>通过 -Dchat.config.file 指定配置文件后，服务端会监听该文件，文件修改后自动重新加载。
+ * 配置文件为 properties 格式，比如：robot=true</p>
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public final class ChatConfig {
+
+    /**
+     * 机器人是否开启的标识
+     */
+    public static final String ROBOT = "robot";
+
+    /**
+     * 机器人概率，值为5表示1/5的概率机器人回复
+     */
+    public static final String ROBOT_PRO = "robotPro";
+
+    /**
+     * 默认配置：不开启机器人，机器人回复概率为1/5
+     */
+    public static final ChatConfig DEFAULT = new ChatConfig(false, 5);
+
+    /**
+     * 当前配置
+     */
+    private static final AtomicReference<ChatConfig> current = new AtomicReference<>(DEFAULT);
+
+    /**
+     * 是否开启机器人发送消息
+     */
+    private final boolean robot;
+
+    /**
+     * 机器人回复概率的分母，小于等于0表示只回复关键字
+     */
+    private final int robotPro;
+
+    private ChatConfig(boolean robot, int robotPro) {
+        this.robot = robot;
+        this.robotPro = robotPro;
+    }
+
+    /**
+     * 获取当前配置
+     *
+     * @return 当前配置
+     */
+    public static ChatConfig current() {
+        return current.get();
+    }
+
+    /**
+     * 用新的配置值更新当前配置，没有指定的配置保持不变，未知的配置和不合法的值会被忽略
+     * <p>配置值在 CAS 之外只解析、校验一次，CAS 失败重试时只重新合并，不合法的值只记录一次日志</p>
+     *
+     * @param values 配置值
+     * @return 更新后的配置
+     */
+    public static ChatConfig update(Map<String, String> values) {
+        Boolean robot = parseRobot(values);
+        Integer robotPro = parseRobotPro(values);
+        return current.updateAndGet(config -> config.with(robot, robotPro));
+    }
+
+    /**
+     * 基于当前配置生成新的配置
+     *
+     * @param values 配置值
+     * @return 新的配置
+     */
+    public ChatConfig with(Map<String, String> values) {
+        return with(parseRobot(values), parseRobotPro(values));
+    }
+
+    /**
+     * 基于当前配置生成新的配置，为null的配置保持不变
+     *
+     * @param robot    是否开启机器人
+     * @param robotPro 机器人回复概率的分母
+     * @return 新的配置
+     */
+    private ChatConfig with(Boolean robot, Integer robotPro) {
+        return new ChatConfig(robot == null ? this.robot : robot, robotPro == null ? this.robotPro : robotPro);
+    }
+
+    private static Boolean parseRobot(Map<String, String> values) {
+        String value = values.get(ROBOT);
+        return value == null ? null : "true".equals(value.trim());
+    }
+
+    private static Integer parseRobotPro(Map<String, String> values) {
+        String value = values.get(ROBOT_PRO);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            ChatLogger.log("【系统消息】配置" + ROBOT_PRO + "的值不合法，保持原值：" + value);
+            return null;
+        }
+    }
+
+    public boolean isRobot() {
+        return robot;
+    }
+
+    public int getRobotPro() {
+        return robotPro;
+    }
+
+    /**
+     * 所有配置的当前值，用于展示
+     *
+     * @return 配置名称和值
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+        map.put(ROBOT, String.valueOf(robot));
+        map.put(ROBOT_PRO, String.valueOf(robotPro));
+        return map;
+    }
+
+    /**
+     * 解析 key1=value1&key2=value2 格式的配置字符串
+     *
+     * @param cfgStr 配置字符串
+     * @return 配置值，字符串为空时为空集合
+     */
+    public static Map<String, String> parse(String cfgStr) {
+        Map<String, String> values = new LinkedHashMap<>();
+        if (cfgStr == null || cfgStr.isEmpty()) {
+            return values;
+        }
+        for (String cfg : cfgStr.split("&")) {
+            String[] kv = cfg.split("=");
+            if (kv.length == 2) {
+                values.put(kv[0].trim(), kv[1].trim());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * 读取 properties 格式的配置文件
+     *
+     * @param file 配置文件
+     * @return 配置值
+     * @throws IOException 抛出异常
+     */
+    public static Map<String, String> load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        Map<String, String> values = new LinkedHashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            values.put(key, properties.getProperty(key));
+        }
+        return values;
+    }
+
+    /**
+     * 加载配置文件，并在后台线程中监听配置文件，文件修改后重新加载
+     * <p>监听的是配置文件所在的目录，编辑器先写临时文件再重命名的保存方式也能感知到</p>
+     *
+     * @param file 配置文件
+     * @throws IOException 抛出异常
+     */
+    public static void watch(Path file) throws IOException {
+        Path path = file.toAbsolutePath();
+        reload(path);
+        WatchService watchService = FileSystems.getDefault().newWatchService();
+        path.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread thread = new Thread(() -> watchLoop(watchService, path), "chat-config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void watchLoop(WatchService watchService, Path file) {
+        Path fileName = file.getFileName();
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            boolean changed = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (fileName.equals(event.context())) {
+                    changed = true;
+                }
+            }
+            // 一次保存可能触发多个事件，只重新加载一次
+            if (changed) {
+                reload(file);
+            }
+            if (!key.reset()) {
+                ChatLogger.log("【系统消息】配置文件所在目录已不可访问，停止监听：" + file);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 重新加载配置文件，读取失败时保持当前配置
+     *
+     * @param file 配置文件
+     */
+    private static void reload(Path file) {
+        if (!Files.exists(file)) {
+            ChatLogger.log("【系统消息】配置文件不存在，使用当前配置：" + file);
+            return;
+        }
+        try {
+            ChatConfig config = update(load(file));
+            ChatLogger.log("【系统消息】配置文件已加载：" + file + "，当前配置：" + config.toMap());
+        } catch (IOException e) {
+            ChatLogger.log("【系统消息】配置文件读取失败，保持当前配置：" + file + "，" + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,534 @@
+package com.herenpeng.chat.common;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * 聊天记录日志，可选开启，用于审计和事后排查
+ * <p>通过 -Dchat.journal.dir 指定目录后开启。消息只追加写入固定大小的分段文件，分段文件通过内存映射写入，
+ * 写满后切换到下一个分段，超过保留数量的最早分段会被删除</p>
+ * <p>业务线程只把消息放入有界队列，由后台线程批量写入映射内存，写入内存不需要系统调用；
+ * 后台线程按批次统一刷盘（组提交），队列满时丢弃消息并计数，不会阻塞广播</p>
+ * <p>分段文件名包含第一条消息的时间，消息时间在日志中单调递增，按时间范围读取时可以直接跳过不相关的分段，
+ * 命令行读取：java com.herenpeng.chat.common.ChatJournal 目录 开始时间 结束时间 [房间]</p>
+ * <p>切换分段和读完分段时主动释放映射内存，不等 GC 回收；JDK 不支持主动释放时，映射要等到缓冲区被 GC 回收才释放，
+ * 期间已删除分段的磁盘空间和地址空间都不会归还。日志目录中文件名不符合分段格式的文件会被忽略</p>
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public final class ChatJournal {
+
+    public static final byte TYPE_CHAT = 1;
+
+    public static final byte TYPE_PRIVATE = 2;
+
+    public static final byte TYPE_SYSTEM = 3;
+
+    /**
+     * 分段文件头的魔数
+     */
+    private static final int MAGIC = 0x43484A31;
+
+    private static final int SEGMENT_HEADER_LENGTH = 8;
+
+    /**
+     * 记录头：4 字节记录长度 + 8 字节时间 + 1 字节类型 + 3 个字符串的 4 字节长度
+     */
+    private static final int RECORD_HEADER_LENGTH = 4 + 8 + 1 + 4 * 3;
+
+    private static final String SEGMENT_PREFIX = "chat-";
+
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    /**
+     * 分段文件名：chat-10位序号-第一条消息的时间.journal
+     */
+    private static final Pattern SEGMENT_NAME = Pattern.compile("chat-\\d{10}-\\d{1,18}\\.journal");
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * 日志目录，为空时不开启
+     */
+    private static final String DIR = System.getProperty("chat.journal.dir");
+
+    /**
+     * 分段文件大小
+     */
+    private static final int SEGMENT_SIZE = Integer.getInteger("chat.journal.segmentSize", 64 * 1024 * 1024);
+
+    /**
+     * 最多保留的分段文件数量，小于等于0表示不删除
+     */
+    private static final int MAX_SEGMENTS = Integer.getInteger("chat.journal.maxSegments", 16);
+
+    /**
+     * 两次刷盘的最小间隔，单位毫秒，队列空闲时立即刷盘
+     */
+    private static final long FLUSH_MILLIS = Long.getLong("chat.journal.flushMillis", 200L);
+
+    /**
+     * 一次最多批量写入的消息条数
+     */
+    private static final int MAX_BATCH_SIZE = 1024;
+
+    private static final ArrayBlockingQueue<Entry> queue =
+            new ArrayBlockingQueue<>(Integer.getInteger("chat.journal.bufferSize", 65536));
+
+    private static final LongAdder droppedCount = new LongAdder();
+
+    private static final LongAdder writtenCount = new LongAdder();
+
+    /**
+     * 主动释放映射内存的方法，JDK 不支持时为空
+     */
+    private static final Consumer<MappedByteBuffer> UNMAPPER = unmapper();
+
+    private static volatile boolean enabled;
+
+    /**
+     * 当前写入的分段，只在写入线程中访问
+     */
+    private static MappedByteBuffer segment;
+
+    private static long segmentSeq;
+
+    /**
+     * 最后写入的消息时间，保证日志中的时间单调递增，只在写入线程中访问
+     */
+    private static long lastTime;
+
+    private static boolean dirty;
+
+    private ChatJournal() {
+    }
+
+    /**
+     * 指定了 -Dchat.journal.dir 时开启聊天记录日志
+     */
+    public static synchronized void start() {
+        if (enabled || DIR == null || DIR.isEmpty()) {
+            return;
+        }
+        Path dir = Paths.get(DIR);
+        try {
+            Files.createDirectories(dir);
+            List<Path> segments = listSegments(dir);
+            // 重启后从新的分段开始写，不续写上次的分段
+            segmentSeq = segments.isEmpty() ? 0 : parseSeq(segments.get(segments.size() - 1));
+        } catch (IOException e) {
+            ChatLogger.log("【系统消息】聊天记录日志目录不可用，不开启聊天记录日志：" + dir + "，" + e.getMessage());
+            return;
+        }
+        enabled = true;
+        ChatMetrics.registerGauge("journal_written_total", writtenCount::sum);
+        ChatMetrics.registerGauge("journal_dropped_total", droppedCount::sum);
+        Thread thread = new Thread(() -> writeLoop(dir), "chat-journal");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(dir), "chat-journal-flush"));
+        ChatLogger.log("【系统消息】聊天记录日志已开启：" + dir.toAbsolutePath());
+    }
+
+    /**
+     * 记录一条消息，没有开启时直接返回
+     *
+     * @param type     消息类型
+     * @param room     房间名称，私信为接收者用户名
+     * @param username 发送者用户名，系统消息为空
+     * @param text     消息
+     */
+    public static void append(byte type, String room, String username, String text) {
+        if (!enabled) {
+            return;
+        }
+        if (!queue.offer(new Entry(System.currentTimeMillis(), type, room, username, text))) {
+            droppedCount.increment();
+        }
+    }
+
+    /**
+     * 后台写入循环，一批消息写入映射内存后统一刷盘
+     *
+     * @param dir 日志目录
+     */
+    private static void writeLoop(Path dir) {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        long lastFlush = System.nanoTime();
+        while (true) {
+            try {
+                Entry first = queue.poll(FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                    synchronized (ChatJournal.class) {
+                        write(dir, batch);
+                    }
+                    batch.clear();
+                }
+                // 队列空闲或者距离上次刷盘超过间隔时刷盘，连续写入时多批消息共用一次刷盘
+                long now = System.nanoTime();
+                if (first == null || now - lastFlush >= TimeUnit.MILLISECONDS.toNanos(FLUSH_MILLIS)) {
+                    synchronized (ChatJournal.class) {
+                        force();
+                    }
+                    lastFlush = now;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                batch.clear();
+                ChatLogger.log("【系统消息】写入聊天记录日志发生了异常：" + e);
+            }
+        }
+    }
+
+    /**
+     * 进程退出时写入队列中剩余的消息并刷盘
+     *
+     * @param dir 日志目录
+     */
+    private static void flush(Path dir) {
+        List<Entry> batch = new ArrayList<>(queue.size());
+        queue.drainTo(batch);
+        synchronized (ChatJournal.class) {
+            try {
+                write(dir, batch);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            force();
+        }
+    }
+
+    private static void write(Path dir, List<Entry> batch) throws IOException {
+        for (Entry entry : batch) {
+            byte[] room = bytes(entry.room);
+            byte[] username = bytes(entry.username);
+            byte[] text = bytes(entry.text);
+            int length = RECORD_HEADER_LENGTH + room.length + username.length + text.length;
+            if (length > SEGMENT_SIZE - SEGMENT_HEADER_LENGTH) {
+                droppedCount.increment();
+                continue;
+            }
+            long time = Math.max(entry.time, lastTime);
+            if (segment == null || segment.remaining() < length) {
+                rotate(dir, time);
+            }
+            // 先写内容再写长度，读取方看到长度时内容已经写完
+            int start = segment.position();
+            segment.position(start + 4);
+            segment.putLong(time);
+            segment.put(entry.type);
+            segment.putInt(room.length).put(room);
+            segment.putInt(username.length).put(username);
+            segment.putInt(text.length).put(text);
+            segment.putInt(start, length);
+            lastTime = time;
+            dirty = true;
+            writtenCount.increment();
+        }
+    }
+
+    /**
+     * 切换到新的分段文件，并删除超过保留数量的最早分段
+     *
+     * @param dir       日志目录
+     * @param firstTime 新分段第一条消息的时间
+     * @throws IOException 抛出异常
+     */
+    private static void rotate(Path dir, long firstTime) throws IOException {
+        force();
+        // 旧分段只在写入线程中持有锁访问，刷盘之后就可以释放
+        MappedByteBuffer old = segment;
+        segment = null;
+        unmap(old);
+        segmentSeq++;
+        Path file = dir.resolve(String.format("%s%010d-%d%s", SEGMENT_PREFIX, segmentSeq, firstTime, SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // 映射在通道关闭之后仍然有效
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        }
+        segment.putInt(MAGIC);
+        segment.putInt(0);
+        if (MAX_SEGMENTS > 0) {
+            List<Path> segments = listSegments(dir);
+            for (int i = 0; i < segments.size() - MAX_SEGMENTS; i++) {
+                Files.deleteIfExists(segments.get(i));
+            }
+        }
+    }
+
+    private static void force() {
+        if (dirty && segment != null) {
+            segment.force();
+            dirty = false;
+        }
+    }
+
+    /**
+     * 读取时间范围内的消息，按时间顺序回调
+     *
+     * @param dir      日志目录
+     * @param from     开始时间，毫秒，包含
+     * @param to       结束时间，毫秒，包含
+     * @param consumer 消息回调
+     * @throws IOException 抛出异常
+     */
+    public static void read(Path dir, long from, long to, Consumer<Entry> consumer) throws IOException {
+        List<Path> segments = listSegments(dir);
+        for (int i = 0; i < segments.size(); i++) {
+            // 时间单调递增，分段内的消息时间不早于本分段的起始时间，不晚于下一个分段的起始时间
+            if (parseFirstTime(segments.get(i)) > to) {
+                break;
+            }
+            if (i + 1 < segments.size() && parseFirstTime(segments.get(i + 1)) < from) {
+                continue;
+            }
+            if (!readSegment(segments.get(i), from, to, consumer)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 读取一个分段，读到结束时间之后的消息就停止
+     *
+     * @param file     分段文件
+     * @param from     开始时间，毫秒，包含
+     * @param to       结束时间，毫秒，包含
+     * @param consumer 消息回调
+     * @return 还需要继续读取后面的分段返回true
+     * @throws IOException 抛出异常
+     */
+    private static boolean readSegment(Path file, long from, long to, Consumer<Entry> consumer) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            return readSegment(buffer, from, to, consumer);
+        } finally {
+            // 回调拿到的消息已经复制到字符串中，读完就可以释放
+            unmap(buffer);
+        }
+    }
+
+    private static boolean readSegment(ByteBuffer buffer, long from, long to, Consumer<Entry> consumer) {
+        if (buffer.remaining() < SEGMENT_HEADER_LENGTH || buffer.getInt() != MAGIC) {
+            return true;
+        }
+        buffer.getInt();
+        while (buffer.remaining() >= RECORD_HEADER_LENGTH) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            // 长度为0表示后面还没有写入
+            if (length < RECORD_HEADER_LENGTH || length > buffer.limit() - start) {
+                break;
+            }
+            long time = buffer.getLong();
+            if (time > to) {
+                return false;
+            }
+            if (time >= from) {
+                byte type = buffer.get();
+                String room = string(buffer);
+                String username = string(buffer);
+                String text = string(buffer);
+                consumer.accept(new Entry(time, type, room, username, text));
+            }
+            buffer.position(start + length);
+        }
+        return true;
+    }
+
+    private static List<Path> listSegments(Path dir) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                // 忽略目录中名称不符合格式的文件，比如手工复制的备份
+                if (SEGMENT_NAME.matcher(path.getFileName().toString()).matches()) {
+                    segments.add(path);
+                }
+            }
+        }
+        // 序号固定10位，按文件名排序即按序号排序
+        segments.sort(null);
+        return segments;
+    }
+
+    private static long parseSeq(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.indexOf('-', SEGMENT_PREFIX.length())));
+    }
+
+    private static long parseFirstTime(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(name.indexOf('-', SEGMENT_PREFIX.length()) + 1,
+                name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * 释放映射内存，释放之后不能再访问缓冲区
+     *
+     * @param buffer 映射内存，为空时直接返回
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        if (buffer == null || UNMAPPER == null) {
+            return;
+        }
+        try {
+            UNMAPPER.accept(buffer);
+        } catch (RuntimeException e) {
+            ChatLogger.log("【系统消息】释放聊天记录日志的映射内存失败，等待 GC 回收：" + e);
+        }
+    }
+
+    /**
+     * 查找主动释放映射内存的方法：JDK 9 及以上使用 Unsafe.invokeCleaner，JDK 8 使用 DirectBuffer.cleaner().clean()
+     *
+     * @return 释放方法，JDK 都不支持时返回空
+     */
+    private static Consumer<MappedByteBuffer> unmapper() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            return buffer -> invoke(invokeCleaner, unsafe, buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // JDK 8 没有 invokeCleaner
+        }
+        try {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> invoke(clean, invoke(cleaner, buffer));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            ChatLogger.log("【系统消息】当前 JDK 不支持主动释放映射内存，聊天记录日志的分段等待 GC 回收：" + e);
+            return null;
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 命令行读取聊天记录
+     *
+     * @param args 日志目录 开始时间 结束时间 [房间]，时间格式为 yyyy-MM-dd HH:mm:ss
+     * @throws IOException 抛出异常
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("用法：java com.herenpeng.chat.common.ChatJournal 目录 \"开始时间\" \"结束时间\" [房间]");
+            return;
+        }
+        long from = parseTime(args[1]);
+        long to = parseTime(args[2]);
+        String room = args.length > 3 ? args[3] : null;
+        read(Paths.get(args[0]), from, to, entry -> {
+            if (room == null || room.equals(entry.getRoom())) {
+                System.out.println(entry);
+            }
+        });
+    }
+
+    private static long parseTime(String time) {
+        return LocalDateTime.parse(time, DATE_TIME_FORMATTER).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 一条聊天记录
+     */
+    public static final class Entry {
+
+        private final long time;
+
+        private final byte type;
+
+        private final String room;
+
+        private final String username;
+
+        private final String text;
+
+        private Entry(long time, byte type, String room, String username, String text) {
+            this.time = time;
+            this.type = type;
+            this.room = room;
+            this.username = username;
+            this.text = text;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public String getRoom() {
+            return room;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        @Override
+        public String toString() {
+            String dateTime = DATE_TIME_FORMATTER.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault()));
+            if (type == TYPE_PRIVATE) {
+                return dateTime + " [私信] " + username + " -> " + room + "：" + text;
+            }
+            if (type == TYPE_SYSTEM) {
+                return dateTime + " [" + room + "] " + text;
+            }
+            return dateTime + " [" + room + "] " + username + "：" + text;
+        }
+    }
+}
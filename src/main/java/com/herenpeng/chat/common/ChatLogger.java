@@ -0,0 +1,196 @@
+package com.herenpeng.chat.common;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 异步日志
+ * <p>业务线程只把日志放入有界队列，由后台线程批量写出到日志文件，业务线程不会因为磁盘 IO 阻塞。
+ * 队列满时的处理策略通过 -Dchat.log.policy 指定：drop 丢弃日志（默认），block 阻塞等待队列有空位</p>
+ * <p>日志文件通过 -Dchat.log.file 指定，不指定时写到标准输出</p>
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public final class ChatLogger {
+
+    /**
+     * 队列满时是否阻塞等待
+     */
+    private static final boolean BLOCK_WHEN_FULL = "block".equals(System.getProperty("chat.log.policy", "drop"));
+
+    /**
+     * 一次最多批量写出的日志条数
+     */
+    private static final int MAX_BATCH_SIZE = 512;
+
+    /**
+     * 日志队列
+     */
+    private static final ArrayBlockingQueue<LogRecord> queue =
+            new ArrayBlockingQueue<>(Integer.getInteger("chat.log.bufferSize", 8192));
+
+    /**
+     * 丢弃的日志条数
+     */
+    private static final LongAdder droppedCount = new LongAdder();
+
+    /**
+     * 已经写出的日志条数
+     */
+    private static final LongAdder writtenCount = new LongAdder();
+
+    /**
+     * 上次写出时已经报告过的丢弃条数，只在持有 writer 锁时访问
+     */
+    private static long reportedDroppedCount;
+
+    private static final Writer writer = openWriter(System.getProperty("chat.log.file"));
+
+    static {
+        Thread thread = new Thread(ChatLogger::writeLoop, "chat-logger");
+        thread.setDaemon(true);
+        thread.start();
+        // 进程退出时写出队列中剩余的日志
+        Runtime.getRuntime().addShutdownHook(new Thread(ChatLogger::flush, "chat-logger-flush"));
+    }
+
+    private ChatLogger() {
+    }
+
+    /**
+     * 记录一条日志，日志时间为调用时的时间
+     *
+     * @param message 日志信息
+     */
+    public static void log(String message) {
+        LogRecord record = new LogRecord(ChatClock.getCurrentDateTime(), message);
+        if (BLOCK_WHEN_FULL) {
+            try {
+                queue.put(record);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                droppedCount.increment();
+            }
+        } else if (!queue.offer(record)) {
+            droppedCount.increment();
+        }
+    }
+
+    /**
+     * 丢弃的日志条数
+     *
+     * @return 丢弃的日志条数
+     */
+    public static long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * 已经写出的日志条数
+     *
+     * @return 已经写出的日志条数
+     */
+    public static long getWrittenCount() {
+        return writtenCount.sum();
+    }
+
+    /**
+     * 后台写日志的循环，阻塞等待第一条日志，再把队列中已有的日志一起写出
+     */
+    private static void writeLoop() {
+        List<LogRecord> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (true) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 写出队列中剩余的所有日志
+     */
+    private static void flush() {
+        List<LogRecord> batch = new ArrayList<>(queue.size());
+        queue.drainTo(batch);
+        write(batch);
+    }
+
+    /**
+     * 写出一批日志，只在最后刷新一次
+     *
+     * @param batch 日志
+     */
+    private static void write(List<LogRecord> batch) {
+        synchronized (writer) {
+            try {
+                long dropped = droppedCount.sum();
+                if (dropped > reportedDroppedCount) {
+                    writer.write(ChatClock.getCurrentDateTime() + " 【系统消息】日志队列已满，累计丢弃日志：" + dropped + "条\n");
+                    reportedDroppedCount = dropped;
+                }
+                for (LogRecord record : batch) {
+                    writer.write(record.time);
+                    writer.write(' ');
+                    writer.write(record.message);
+                    writer.write('\n');
+                }
+                writer.flush();
+                writtenCount.add(batch.size());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 打开日志输出
+     *
+     * @param logFile 日志文件，为空时使用标准输出
+     * @return 日志输出
+     */
+    private static Writer openWriter(String logFile) {
+        FileOutputStream os;
+        if (logFile == null || logFile.isEmpty()) {
+            // 直接写标准输出的文件描述符，不经过 System.out 的锁
+            os = new FileOutputStream(FileDescriptor.out);
+        } else {
+            try {
+                os = new FileOutputStream(logFile, true);
+            } catch (IOException e) {
+                throw new IllegalStateException("无法打开日志文件：" + logFile, e);
+            }
+        }
+        return new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    /**
+     * 一条日志
+     */
+    private static class LogRecord {
+
+        private final String time;
+
+        private final String message;
+
+        private LogRecord(String time, String message) {
+            this.time = time;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.herenpeng.chat.common;
+
+/**
+ * 聊天消息格式，两种服务端共用
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public final class ChatMessageFormat {
+
+    /**
+     * 聊天记录分隔符
+     */
+    public static final String CHAT_SEPARATE = "---------------------------";
+
+    private ChatMessageFormat() {
+    }
+
+    /**
+     * 拼接聊天消息的上下文：消息发送用户名称，消息发送时间，消息分隔符
+     *
+     * @param username 消息发送用户名称
+     * @param msg      消息
+     * @return 拼接好的消息
+     */
+    public static String formatChatMsg(String username, String msg) {
+        return "（" + username + "） " + ChatClock.getCurrentTime() + "\n" + msg + "\n" + CHAT_SEPARATE;
+    }
+
+    /**
+     * 拼接私信的上下文：私信发送用户名称，消息发送时间，消息分隔符
+     *
+     * @param username 私信发送用户名称
+     * @param msg      私信
+     * @return 拼接好的私信
+     */
+    public static String formatPrivateMsg(String username, String msg) {
+        return "（" + username + " 私信） " + ChatClock.getCurrentTime() + "\n" + msg + "\n" + CHAT_SEPARATE;
+    }
+
+    /**
+     * 拼接系统消息的上下文：消息发送时间，消息分隔符
+     *
+     * @param msg 系统消息
+     * @return 拼接好的消息
+     */
+    public static String formatSysMsg(String msg) {
+        return ChatClock.getCurrentTime() + "\n" + msg + "\n" + CHAT_SEPARATE;
+    }
+}
@@ -0,0 +1,543 @@
+package com.herenpeng.chat.common;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 聊天室监控指标
+ * <p>计数器使用 {@link LongAdder}，多个线程同时累加时分散到不同的槽位，不会争抢同一个缓存行；
+ * 耗时和队列深度使用 {@link LatencyHistogram} 统计分位数。记录指标只有几次原子加，可以放在热点路径上</p>
+ * <p>指标通过 JMX 暴露，注册名称为 com.herenpeng.chat:type=ChatMetrics；
+ * 启动时指定 -Dchat.metrics.port 后，还会在本机该端口提供文本格式的指标，可以直接用 curl 或 nc 读取</p>
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public final class ChatMetrics implements ChatMetricsMXBean {
+
+    private static final LongAdder connectionsOpened = new LongAdder();
+
+    private static final LongAdder connectionsClosed = new LongAdder();
+
+    private static final LongAdder messagesIn = new LongAdder();
+
+    private static final LongAdder messagesOut = new LongAdder();
+
+    private static final LongAdder bytesIn = new LongAdder();
+
+    private static final LongAdder bytesOut = new LongAdder();
+
+    /**
+     * 所有连接的发送队列中还没有写出的消息总数
+     */
+    private static final LongAdder outboundQueueDepth = new LongAdder();
+
+    /**
+     * 因为接收太慢被断开的连接数
+     */
+    private static final LongAdder slowConsumerEvictions = new LongAdder();
+
+    /**
+     * 因为接收者积压太多被丢弃的消息数
+     */
+    private static final LongAdder slowConsumerDroppedMessages = new LongAdder();
+
+    /**
+     * 消息进入发送队列时该队列的深度
+     */
+    private static final LatencyHistogram outboundQueueDepthHistogram = new LatencyHistogram();
+
+    /**
+     * 一次广播放入所有接收者的耗时，单位纳秒
+     */
+    private static final LatencyHistogram broadcastNanos = new LatencyHistogram();
+
+    /**
+     * 选择器一次循环处理事件和任务的耗时，不包含阻塞在 select 上的时间，单位纳秒
+     */
+    private static final LatencyHistogram selectorLoopNanos = new LatencyHistogram();
+
+    /**
+     * 压缩前的字节数
+     */
+    private static final LongAdder compressInBytes = new LongAdder();
+
+    /**
+     * 压缩后实际发送的字节数，压缩后没有变小的消息按原文计算
+     */
+    private static final LongAdder compressOutBytes = new LongAdder();
+
+    /**
+     * 压缩消耗的总时间，压缩是纯计算，不会阻塞，近似为压缩占用的 CPU 时间，单位纳秒
+     */
+    private static final LongAdder compressCpuNanos = new LongAdder();
+
+    /**
+     * 一次压缩的耗时，单位纳秒
+     */
+    private static final LatencyHistogram compressNanos = new LatencyHistogram();
+
+    /**
+     * 服务端额外注册的指标
+     */
+    private static final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    /**
+     * 最近一秒的速率，由后台线程每秒计算一次
+     */
+    private static volatile Rates rates = new Rates(0, 0, 0, 0, 0, 0, 0, 0);
+
+    private static final ChatMetrics INSTANCE = new ChatMetrics();
+
+    private static boolean started;
+
+    private ChatMetrics() {
+    }
+
+    /**
+     * 启动指标统计：注册 JMX，启动速率计算线程，指定了 -Dchat.metrics.port 时启动文本指标端口
+     */
+    public static synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        registerGauge("log_dropped_total", ChatLogger::getDroppedCount);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName("com.herenpeng.chat:type=ChatMetrics"));
+        } catch (Exception e) {
+            ChatLogger.log("【系统消息】注册 JMX 监控指标失败：" + e);
+        }
+        Thread ticker = new Thread(ChatMetrics::tickLoop, "chat-metrics");
+        ticker.setDaemon(true);
+        ticker.start();
+
+        int port = Integer.getInteger("chat.metrics.port", 0);
+        if (port > 0) {
+            try {
+                ServerSocket server = new ServerSocket(port, 50, InetAddress.getByName(System.getProperty("chat.metrics.host", "127.0.0.1")));
+                Thread thread = new Thread(() -> serveLoop(server), "chat-metrics-port");
+                thread.setDaemon(true);
+                thread.start();
+                ChatLogger.log("【系统消息】监控指标端口已启动：" + server.getLocalSocketAddress());
+            } catch (IOException e) {
+                ChatLogger.log("【系统消息】监控指标端口启动失败：" + port + "，" + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 注册一个额外的指标，读取指标时调用
+     *
+     * @param name     指标名称，输出时会加上 chat_ 前缀
+     * @param supplier 指标值
+     */
+    public static void registerGauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    public static void connectionOpened() {
+        connectionsOpened.increment();
+    }
+
+    public static void connectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    /**
+     * 记录收到的消息
+     *
+     * @param messages 消息条数
+     * @param bytes    字节数
+     */
+    public static void messagesIn(int messages, long bytes) {
+        if (messages > 0) {
+            messagesIn.add(messages);
+        }
+        if (bytes > 0) {
+            bytesIn.add(bytes);
+        }
+    }
+
+    /**
+     * 记录写出的字节，一次写出可能只写出消息的一部分
+     *
+     * @param bytes 字节数
+     */
+    public static void bytesOut(long bytes) {
+        if (bytes > 0) {
+            bytesOut.add(bytes);
+        }
+    }
+
+    /**
+     * 记录一条完整写出的消息
+     */
+    public static void messageOut() {
+        messagesOut.increment();
+    }
+
+    /**
+     * 记录消息进入发送队列
+     *
+     * @param depth 进入队列后该队列的深度
+     */
+    public static void enqueued(int depth) {
+        outboundQueueDepth.increment();
+        outboundQueueDepthHistogram.record(depth);
+    }
+
+    /**
+     * 记录消息离开发送队列，写出完成或者连接关闭被丢弃
+     */
+    public static void dequeued() {
+        outboundQueueDepth.decrement();
+    }
+
+    /**
+     * 记录一个被断开的慢消费者
+     */
+    public static void slowConsumerEvicted() {
+        slowConsumerEvictions.increment();
+    }
+
+    /**
+     * 记录发给慢消费者被丢弃的消息
+     */
+    public static void slowConsumerDropped() {
+        slowConsumerDroppedMessages.increment();
+    }
+
+    public static void broadcast(long nanos) {
+        broadcastNanos.record(nanos);
+    }
+
+    public static void selectorLoop(long nanos) {
+        selectorLoopNanos.record(nanos);
+    }
+
+    /**
+     * 记录一次消息压缩
+     *
+     * @param inBytes  压缩前的字节数
+     * @param outBytes 压缩后的字节数
+     * @param nanos    压缩耗时
+     */
+    public static void compressed(long inBytes, long outBytes, long nanos) {
+        compressInBytes.add(inBytes);
+        compressOutBytes.add(outBytes);
+        compressCpuNanos.add(nanos);
+        compressNanos.record(nanos);
+    }
+
+    /**
+     * 文本格式的所有指标，每行一个指标：名称 值
+     *
+     * @return 指标文本
+     */
+    public static String text() {
+        Rates current = rates;
+        StringBuilder sb = new StringBuilder(2048);
+        line(sb, "chat_connections_current", connectionsOpened.sum() - connectionsClosed.sum());
+        line(sb, "chat_connections_opened_total", connectionsOpened.sum());
+        line(sb, "chat_connections_closed_total", connectionsClosed.sum());
+        line(sb, "chat_messages_in_total", messagesIn.sum());
+        line(sb, "chat_messages_out_total", messagesOut.sum());
+        line(sb, "chat_messages_in_per_second", current.messagesInPerSecond);
+        line(sb, "chat_messages_out_per_second", current.messagesOutPerSecond);
+        line(sb, "chat_bytes_in_total", bytesIn.sum());
+        line(sb, "chat_bytes_out_total", bytesOut.sum());
+        line(sb, "chat_bytes_in_per_second", current.bytesInPerSecond);
+        line(sb, "chat_bytes_out_per_second", current.bytesOutPerSecond);
+        line(sb, "chat_outbound_queue_depth", outboundQueueDepth.sum());
+        histogram(sb, "chat_outbound_queue_depth_at_enqueue", outboundQueueDepthHistogram);
+        line(sb, "chat_slow_consumer_evictions_total", slowConsumerEvictions.sum());
+        line(sb, "chat_slow_consumer_dropped_messages_total", slowConsumerDroppedMessages.sum());
+        histogram(sb, "chat_broadcast_nanos", broadcastNanos);
+        histogram(sb, "chat_selector_loop_nanos", selectorLoopNanos);
+        line(sb, "chat_compress_in_bytes_total", compressInBytes.sum());
+        line(sb, "chat_compress_out_bytes_total", compressOutBytes.sum());
+        sb.append("chat_compress_ratio ").append(String.format(Locale.ROOT, "%.3f", INSTANCE.getCompressRatio())).append('\n');
+        line(sb, "chat_compress_cpu_nanos_total", compressCpuNanos.sum());
+        histogram(sb, "chat_compress_nanos", compressNanos);
+        for (Map.Entry<String, Long> entry : INSTANCE.getGauges().entrySet()) {
+            line(sb, "chat_" + entry.getKey(), entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    private static void line(StringBuilder sb, String name, long value) {
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void line(StringBuilder sb, String name, double value) {
+        sb.append(name).append(' ').append(String.format(Locale.ROOT, "%.1f", value)).append('\n');
+    }
+
+    private static void histogram(StringBuilder sb, String name, LatencyHistogram histogram) {
+        line(sb, name + "{quantile=\"0.5\"}", histogram.getValueAtPercentile(50));
+        line(sb, name + "{quantile=\"0.99\"}", histogram.getValueAtPercentile(99));
+        line(sb, name + "{quantile=\"0.999\"}", histogram.getValueAtPercentile(99.9));
+        line(sb, name + "_max", histogram.getMax());
+        line(sb, name + "_count", histogram.getCount());
+    }
+
+    /**
+     * 每秒计算一次速率
+     */
+    private static void tickLoop() {
+        long lastNanos = System.nanoTime();
+        Rates last = rates;
+        while (true) {
+            try {
+                TimeUnit.SECONDS.sleep(1);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.nanoTime();
+            double seconds = (now - lastNanos) / 1e9;
+            long in = messagesIn.sum();
+            long out = messagesOut.sum();
+            long bIn = bytesIn.sum();
+            long bOut = bytesOut.sum();
+            Rates current = new Rates(in, out, bIn, bOut,
+                    (in - last.messagesIn) / seconds, (out - last.messagesOut) / seconds,
+                    (bIn - last.bytesIn) / seconds, (bOut - last.bytesOut) / seconds);
+            rates = current;
+            last = current;
+            lastNanos = now;
+        }
+    }
+
+    /**
+     * 文本指标端口，每个连接返回一次所有指标后关闭
+     * <p>请求以 GET 开头时按 HTTP 响应，否则直接返回文本，所以 curl 和 nc 都可以读取</p>
+     *
+     * @param server 服务端 socket
+     */
+    private static void serveLoop(ServerSocket server) {
+        while (true) {
+            try (Socket socket = server.accept()) {
+                socket.setSoTimeout(500);
+                boolean http = false;
+                InputStream is = socket.getInputStream();
+                try {
+                    byte[] request = new byte[1024];
+                    int len = is.read(request);
+                    http = len >= 3 && request[0] == 'G' && request[1] == 'E' && request[2] == 'T';
+                } catch (SocketTimeoutException e) {
+                    // 没有发送请求，直接返回文本
+                }
+                byte[] body = text().getBytes(StandardCharsets.UTF_8);
+                OutputStream os = socket.getOutputStream();
+                if (http) {
+                    os.write(("HTTP/1.0 200 OK\r\nContent-Type: text/plain; charset=utf-8\r\nContent-Length: "
+                            + body.length + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                }
+                os.write(body);
+                os.flush();
+            } catch (IOException e) {
+                if (server.isClosed()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public long getConnectionsCurrent() {
+        return connectionsOpened.sum() - connectionsClosed.sum();
+    }
+
+    @Override
+    public long getConnectionsOpened() {
+        return connectionsOpened.sum();
+    }
+
+    @Override
+    public long getConnectionsClosed() {
+        return connectionsClosed.sum();
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    @Override
+    public double getMessagesInPerSecond() {
+        return rates.messagesInPerSecond;
+    }
+
+    @Override
+    public double getMessagesOutPerSecond() {
+        return rates.messagesOutPerSecond;
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public double getBytesInPerSecond() {
+        return rates.bytesInPerSecond;
+    }
+
+    @Override
+    public double getBytesOutPerSecond() {
+        return rates.bytesOutPerSecond;
+    }
+
+    @Override
+    public long getOutboundQueueDepth() {
+        return outboundQueueDepth.sum();
+    }
+
+    @Override
+    public long getOutboundQueueDepthP99() {
+        return outboundQueueDepthHistogram.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getSlowConsumerEvictions() {
+        return slowConsumerEvictions.sum();
+    }
+
+    @Override
+    public long getSlowConsumerDroppedMessages() {
+        return slowConsumerDroppedMessages.sum();
+    }
+
+    @Override
+    public long getBroadcastNanosP50() {
+        return broadcastNanos.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getBroadcastNanosP99() {
+        return broadcastNanos.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getBroadcastNanosMax() {
+        return broadcastNanos.getMax();
+    }
+
+    @Override
+    public long getSelectorLoopNanosP50() {
+        return selectorLoopNanos.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getSelectorLoopNanosP99() {
+        return selectorLoopNanos.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getSelectorLoopNanosMax() {
+        return selectorLoopNanos.getMax();
+    }
+
+    @Override
+    public long getCompressInBytes() {
+        return compressInBytes.sum();
+    }
+
+    @Override
+    public long getCompressOutBytes() {
+        return compressOutBytes.sum();
+    }
+
+    @Override
+    public double getCompressRatio() {
+        long in = compressInBytes.sum();
+        return in == 0 ? 1 : (double) compressOutBytes.sum() / in;
+    }
+
+    @Override
+    public long getCompressCpuNanos() {
+        return compressCpuNanos.sum();
+    }
+
+    @Override
+    public long getCompressNanosP99() {
+        return compressNanos.getValueAtPercentile(99);
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        return values;
+    }
+
+    @Override
+    public void resetHistograms() {
+        outboundQueueDepthHistogram.reset();
+        broadcastNanos.reset();
+        selectorLoopNanos.reset();
+        compressNanos.reset();
+    }
+
+    /**
+     * 某一秒的计数和速率，不可变
+     */
+    private static class Rates {
+
+        private final long messagesIn;
+
+        private final long messagesOut;
+
+        private final long bytesIn;
+
+        private final long bytesOut;
+
+        private final double messagesInPerSecond;
+
+        private final double messagesOutPerSecond;
+
+        private final double bytesInPerSecond;
+
+        private final double bytesOutPerSecond;
+
+        private Rates(long messagesIn, long messagesOut, long bytesIn, long bytesOut,
+                      double messagesInPerSecond, double messagesOutPerSecond, double bytesInPerSecond, double bytesOutPerSecond) {
+            this.messagesIn = messagesIn;
+            this.messagesOut = messagesOut;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.messagesInPerSecond = messagesInPerSecond;
+            this.messagesOutPerSecond = messagesOutPerSecond;
+            this.bytesInPerSecond = bytesInPerSecond;
+            this.bytesOutPerSecond = bytesOutPerSecond;
+        }
+    }
+}
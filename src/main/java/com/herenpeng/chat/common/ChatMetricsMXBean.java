@@ -0,0 +1,81 @@
+package com.herenpeng.chat.common;
+
+import java.util.Map;
+
+/**
+ * 聊天室监控指标的 JMX 接口，注册名称为 com.herenpeng.chat:type=ChatMetrics
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public interface ChatMetricsMXBean {
+
+    long getConnectionsCurrent();
+
+    long getConnectionsOpened();
+
+    long getConnectionsClosed();
+
+    long getMessagesIn();
+
+    long getMessagesOut();
+
+    double getMessagesInPerSecond();
+
+    double getMessagesOutPerSecond();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    double getBytesInPerSecond();
+
+    double getBytesOutPerSecond();
+
+    long getOutboundQueueDepth();
+
+    long getOutboundQueueDepthP99();
+
+    long getSlowConsumerEvictions();
+
+    long getSlowConsumerDroppedMessages();
+
+    long getBroadcastNanosP50();
+
+    long getBroadcastNanosP99();
+
+    long getBroadcastNanosMax();
+
+    long getSelectorLoopNanosP50();
+
+    long getSelectorLoopNanosP99();
+
+    long getSelectorLoopNanosMax();
+
+    long getCompressInBytes();
+
+    long getCompressOutBytes();
+
+    /**
+     * 压缩后字节数和压缩前字节数的比值，越小越好
+     *
+     * @return 压缩比，还没有压缩过返回1
+     */
+    double getCompressRatio();
+
+    long getCompressCpuNanos();
+
+    long getCompressNanosP99();
+
+    /**
+     * 服务端额外注册的指标，比如缓冲区池命中次数
+     *
+     * @return 指标名称和值
+     */
+    Map<String, Long> getGauges();
+
+    /**
+     * 清空所有直方图，重新开始统计
+     */
+    void resetHistograms();
+}
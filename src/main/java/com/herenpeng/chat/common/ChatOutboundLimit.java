@@ -0,0 +1,76 @@
+package com.herenpeng.chat.common;
+
+/**
+ * 每个连接待发送消息的上限，两种服务端共用
+ * <p>对端不读取消息时，发给它的消息会一直积压。积压的消息条数超过 -Dchat.outbound.maxMessages，
+ * 或者字节数超过 -Dchat.outbound.maxBytes 时，该连接被认为是慢消费者，按 -Dchat.outbound.policy 处理：</p>
+ * <p>drop-oldest：丢弃最早的待发送消息，drop-new：丢弃新的消息，disconnect：断开连接（默认）</p>
+ * <p>BIO 服务端的写操作会阻塞，一次写出超过 -Dchat.outbound.writeTimeout 毫秒还没有完成时，不论哪种策略都会断开连接，
+ * 否则持有写锁的发送线程会一直阻塞</p>
+ * <p>上限小于等于0表示不限制</p>
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public final class ChatOutboundLimit {
+
+    public static final String DROP_OLDEST = "drop-oldest";
+
+    public static final String DROP_NEW = "drop-new";
+
+    public static final String DISCONNECT = "disconnect";
+
+    /**
+     * 每个连接最多积压的消息条数
+     */
+    public static final int MAX_MESSAGES = Integer.getInteger("chat.outbound.maxMessages", 1024);
+
+    /**
+     * 每个连接最多积压的字节数
+     */
+    public static final long MAX_BYTES = Long.getLong("chat.outbound.maxBytes", 4L * 1024 * 1024);
+
+    /**
+     * BIO 服务端单次写出的最长时间，单位毫秒
+     */
+    public static final long WRITE_TIMEOUT_MILLIS = Long.getLong("chat.outbound.writeTimeout", 10000L);
+
+    /**
+     * 超过上限时的处理策略，不认识的策略按 disconnect 处理
+     */
+    public static final String POLICY = parsePolicy(System.getProperty("chat.outbound.policy", DISCONNECT));
+
+    private ChatOutboundLimit() {
+    }
+
+    /**
+     * 积压的消息是否超过上限
+     *
+     * @param messages 积压的消息条数
+     * @param bytes    积压的字节数
+     * @return 超过返回true，否则返回false
+     */
+    public static boolean isExceeded(int messages, long bytes) {
+        return (MAX_MESSAGES > 0 && messages > MAX_MESSAGES) || (MAX_BYTES > 0 && bytes > MAX_BYTES);
+    }
+
+    public static boolean isDropOldest() {
+        return DROP_OLDEST.equals(POLICY);
+    }
+
+    public static boolean isDropNew() {
+        return DROP_NEW.equals(POLICY);
+    }
+
+    public static boolean isDisconnect() {
+        return DISCONNECT.equals(POLICY);
+    }
+
+    private static String parsePolicy(String policy) {
+        if (DROP_OLDEST.equals(policy) || DROP_NEW.equals(policy) || DISCONNECT.equals(policy)) {
+            return policy;
+        }
+        ChatLogger.log("【系统消息】慢消费者处理策略不合法，使用" + DISCONNECT + "：" + policy);
+        return DISCONNECT;
+    }
+}
@@ -0,0 +1,302 @@
+package com.herenpeng.chat.common;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * 房间成员在线状态，每个房间维护一份带版本号的成员名单
+ * <p>进入房间的用户单独收到一份完整的成员名单，名单按版本缓存，版本不变时直接复用；
+ * 房间内的其他用户只收到成员变化，比如“alice、bob已加入，carol已离开”，不再每次都收到完整名单</p>
+ * <p>成员变化按房间合并发送：第一次变化之后等待 -Dchat.presence.coalesceMillis 毫秒（默认 50），
+ * 期间的所有变化合并成一条消息，同一个用户先加入后离开（或者先离开后加入）的变化互相抵消。
+ * 小于等于0表示不合并，每次变化立即发送</p>
+ * <p>成员变化对所有人都是同一条消息，刚进入房间的用户也可能收到包含自己的变化，变化是幂等的，不影响名单的正确性</p>
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public class ChatPresence {
+
+    /**
+     * 成员变化合并发送的等待时间，单位毫秒
+     */
+    public static final long COALESCE_MILLIS = Long.getLong("chat.presence.coalesceMillis", 50L);
+
+    private final ConcurrentHashMap<String, Roster> rooms = new ConcurrentHashMap<>();
+
+    /**
+     * 有待发送成员变化的房间
+     */
+    private final LinkedBlockingQueue<String> dirtyRooms = new LinkedBlockingQueue<>();
+
+    /**
+     * 发送成员变化，参数为房间名称和消息
+     */
+    private final BiConsumer<String, String> publisher;
+
+    private final LongAdder changeCount = new LongAdder();
+
+    private final LongAdder deltaCount = new LongAdder();
+
+    /**
+     * @param publisher 给房间内所有用户发送成员变化的方法，参数为房间名称和消息
+     */
+    public ChatPresence(BiConsumer<String, String> publisher) {
+        this.publisher = publisher;
+    }
+
+    /**
+     * 注册监控指标，需要合并发送时启动后台线程
+     */
+    public void start() {
+        ChatMetrics.registerGauge("presence_changes_total", changeCount::sum);
+        ChatMetrics.registerGauge("presence_deltas_total", deltaCount::sum);
+        if (COALESCE_MILLIS <= 0) {
+            return;
+        }
+        Thread thread = new Thread(this::publishLoop, "chat-presence");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 用户进入房间
+     *
+     * @param room     房间名称
+     * @param id       连接 id
+     * @param username 用户名
+     */
+    public void join(String room, long id, String username) {
+        rooms.compute(room, (name, roster) -> {
+            if (roster == null) {
+                roster = new Roster();
+            }
+            roster.join(id, username);
+            return roster;
+        });
+        changed(room);
+    }
+
+    /**
+     * 用户离开房间，最后一个用户离开时删除该房间的名单
+     *
+     * @param room 房间名称，为null时不做处理
+     * @param id   连接 id
+     */
+    public void leave(String room, long id) {
+        if (room == null) {
+            return;
+        }
+        rooms.computeIfPresent(room, (name, roster) -> {
+            roster.leave(id);
+            return roster.isEmpty() ? null : roster;
+        });
+        changed(room);
+    }
+
+    /**
+     * 获取房间的完整成员名单，同一个版本的名单只构建一次
+     *
+     * @param room 房间名称
+     * @return 成员名单，比如“当前房间：大厅，房间成员有：\n1、alice\n2、bob”
+     */
+    public String roster(String room) {
+        Roster roster = room == null ? null : rooms.get(room);
+        if (roster == null) {
+            return "当前房间：" + room + "，房间成员有：";
+        }
+        return roster.text(room);
+    }
+
+    /**
+     * 删除所有房间的名单
+     */
+    public void clear() {
+        rooms.clear();
+        dirtyRooms.clear();
+    }
+
+    private void changed(String room) {
+        changeCount.increment();
+        if (COALESCE_MILLIS <= 0) {
+            publish(room);
+            return;
+        }
+        Roster roster = rooms.get(room);
+        if (roster != null && roster.markDirty()) {
+            dirtyRooms.add(room);
+        }
+    }
+
+    /**
+     * 后台合并发送循环：第一个房间有变化后等待合并时间，再发送所有房间积攒的变化
+     */
+    private void publishLoop() {
+        List<String> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(dirtyRooms.take());
+                TimeUnit.MILLISECONDS.sleep(COALESCE_MILLIS);
+                dirtyRooms.drainTo(batch);
+                for (String room : batch) {
+                    publish(room);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                ChatLogger.log("【系统消息】发送房间成员变化发生了异常……");
+                e.printStackTrace();
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 发送房间积攒的成员变化，房间已经没有成员或者变化互相抵消时不发送
+     *
+     * @param room 房间名称
+     */
+    private void publish(String room) {
+        Roster roster = rooms.get(room);
+        String msg = roster == null ? null : roster.drainDelta();
+        if (msg == null) {
+            return;
+        }
+        deltaCount.increment();
+        publisher.accept(room, msg);
+    }
+
+    /**
+     * 一个房间的成员名单和待发送的成员变化
+     */
+    private static class Roster {
+
+        /**
+         * 按进入房间的顺序保存成员，连接 id 对应用户名
+         */
+        private final LinkedHashMap<Long, String> members = new LinkedHashMap<>();
+
+        /**
+         * 待发送的成员变化，用户名对应加入（true）或离开（false）
+         */
+        private final LinkedHashMap<String, Boolean> pending = new LinkedHashMap<>();
+
+        private long version;
+
+        /**
+         * 名单的文本，只有成员加入时在末尾追加，成员离开时失效，下次获取时重新构建
+         */
+        private StringBuilder text;
+
+        private String cachedText;
+
+        private long cachedVersion = -1;
+
+        private boolean dirty;
+
+        private synchronized void join(long id, String username) {
+            members.put(id, username);
+            version++;
+            if (text != null) {
+                text.append('\n').append(members.size()).append('、').append(username);
+            }
+            change(username, true);
+        }
+
+        private synchronized void leave(long id) {
+            String username = members.remove(id);
+            if (username == null) {
+                return;
+            }
+            version++;
+            text = null;
+            change(username, false);
+        }
+
+        /**
+         * 记录一次成员变化，同一个用户相反的变化互相抵消
+         */
+        private void change(String username, boolean joined) {
+            Boolean previous = pending.remove(username);
+            if (previous == null || previous == joined) {
+                pending.put(username, joined);
+            }
+        }
+
+        private synchronized boolean isEmpty() {
+            return members.isEmpty();
+        }
+
+        /**
+         * 标记有待发送的变化
+         *
+         * @return 之前没有标记返回true，需要加入待发送队列
+         */
+        private synchronized boolean markDirty() {
+            if (dirty) {
+                return false;
+            }
+            dirty = true;
+            return true;
+        }
+
+        private synchronized String text(String room) {
+            if (cachedVersion == version) {
+                return cachedText;
+            }
+            if (text == null) {
+                text = new StringBuilder();
+                text.append("当前房间：").append(room).append("，房间成员有：");
+                int index = 0;
+                for (String username : members.values()) {
+                    text.append('\n').append(++index).append('、').append(username);
+                }
+            }
+            cachedText = text.toString();
+            cachedVersion = version;
+            return cachedText;
+        }
+
+        /**
+         * 取出待发送的成员变化
+         *
+         * @return 成员变化消息，没有变化返回null
+         */
+        private synchronized String drainDelta() {
+            dirty = false;
+            if (pending.isEmpty()) {
+                return null;
+            }
+            List<String> joined = new ArrayList<>();
+            List<String> left = new ArrayList<>();
+            Iterator<Map.Entry<String, Boolean>> iterator = pending.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Boolean> entry = iterator.next();
+                (entry.getValue() ? joined : left).add(entry.getKey());
+                iterator.remove();
+            }
+            StringBuilder sb = new StringBuilder("【系统消息】");
+            if (!joined.isEmpty()) {
+                sb.append(String.join("、", joined)).append("已加入");
+            }
+            if (!left.isEmpty()) {
+                if (!joined.isEmpty()) {
+                    sb.append("，");
+                }
+                sb.append(String.join("、", left)).append("已离开");
+            }
+            sb.append("，当前房间共").append(members.size()).append("人");
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.herenpeng.chat.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 并发的成员注册表，按连接 id 保存成员
+ * <p>添加和移除都是 O(1) 的 {@link ConcurrentHashMap} 操作，只会让快照失效，不会复制数组；
+ * 遍历时使用不可变的快照，快照失效后由第一个遍历的线程重建，所有操作都不需要全局锁</p>
+ *
+ * @param <T> 成员类型
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public class ChatRegistry<T> {
+
+    private final ConcurrentHashMap<Long, T> members = new ConcurrentHashMap<>();
+
+    /**
+     * 成员变更的版本号，每次添加或移除成员之后加一
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * 最近一次构建的快照
+     */
+    private final AtomicReference<Snapshot<T>> snapshot = new AtomicReference<>(new Snapshot<>(0L, Collections.emptyList()));
+
+    /**
+     * 添加成员
+     *
+     * @param id     连接 id
+     * @param member 成员
+     */
+    public void add(long id, T member) {
+        members.put(id, member);
+        version.incrementAndGet();
+    }
+
+    /**
+     * 移除成员
+     *
+     * @param id 连接 id
+     * @return 被移除的成员，不存在返回null
+     */
+    public T remove(long id) {
+        T member = members.remove(id);
+        if (member != null) {
+            version.incrementAndGet();
+        }
+        return member;
+    }
+
+    public T get(long id) {
+        return members.get(id);
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    public boolean isEmpty() {
+        return members.isEmpty();
+    }
+
+    /**
+     * 清空所有成员
+     */
+    public void clear() {
+        members.clear();
+        version.incrementAndGet();
+    }
+
+    /**
+     * 获取成员快照，快照不可修改，遍历期间其他线程添加或移除成员不会影响快照
+     * <p>快照包含获取快照之前所有已经完成添加的成员</p>
+     *
+     * @return 成员快照
+     */
+    public List<T> snapshot() {
+        long currentVersion = version.get();
+        Snapshot<T> current = snapshot.get();
+        if (current.version == currentVersion) {
+            return current.members;
+        }
+        // 先读版本号再遍历，遍历期间发生的变更会让版本号变大，下次获取时重建
+        Snapshot<T> rebuilt = new Snapshot<>(currentVersion, Collections.unmodifiableList(new ArrayList<>(members.values())));
+        // 只替换更旧的快照，避免慢线程用旧数据覆盖别人刚构建的新快照
+        while (current.version < currentVersion && !snapshot.compareAndSet(current, rebuilt)) {
+            current = snapshot.get();
+        }
+        return rebuilt.members;
+    }
+
+    /**
+     * 不可变的成员快照
+     */
+    private static class Snapshot<T> {
+
+        private final long version;
+
+        private final List<T> members;
+
+        private Snapshot(long version, List<T> members) {
+            this.version = version;
+            this.members = members;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.herenpeng.chat.common;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 聊天室机器人，两种服务端共用
+ *
+ * @author herenpeng
+ * @since 2021-07-09 12:00:00
+ */
+public class ChatRobot {
+    // 机器人名称
+    private final String username;
+    // 机器人随机回复
+    private final List<String> replyMsgList;
+    // 机器人晚上回复
+    private final List<String> nightReplyMsgList;
+    // 机器人关键字回复，和编译好的关键字匹配器一起整体替换
+    private volatile KeyWordReply keyWordReply;
+
+    public ChatRobot(String username, List<String> replyMsgList, List<String> nightReplyMsgList, Map<String, List<String>> keyWordReplyMsgMap) {
+        this.username = username;
+        this.replyMsgList = replyMsgList;
+        this.nightReplyMsgList = nightReplyMsgList;
+        setKeyWordReplyMsgMap(keyWordReplyMsgMap);
+    }
+
+    /**
+     * 替换关键字回复，重新编译关键字匹配器
+     * <p>编译完成后一次性替换，正在匹配的消息继续使用旧的关键字，不会看到编译了一半的匹配器。
+     * 传入的集合会被复制，之后再修改它不会影响机器人，需要再次调用本方法</p>
+     *
+     * @param keyWordReplyMsgMap 关键字回复的消息
+     */
+    public void setKeyWordReplyMsgMap(Map<String, List<String>> keyWordReplyMsgMap) {
+        this.keyWordReply = new KeyWordReply(keyWordReplyMsgMap);
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * 随机一条回复消息
+     *
+     * @return 回复消息，没有消息返回null
+     */
+    public String randomReplyMsg() {
+        return randomMsg(this.replyMsgList);
+    }
+
+    /**
+     * 随机一条晚上回复的消息
+     *
+     * @return 晚上回复的消息，没有消息返回null
+     */
+    public String randomNightReplyMsg() {
+        return randomMsg(this.nightReplyMsgList);
+    }
+
+    /**
+     * 根据消息随机一条回复消息，
+     *
+     * @param msg 消息
+     * @return 没有命中关键字活着没有消息返回null
+     */
+    public String randomKeyWordReplyMsg(String msg) {
+        KeyWordReply reply = this.keyWordReply;
+        // 触发关键字回复消息，消息中最先出现的关键字优先
+        String keyWord = reply.matcher.findFirst(msg);
+        return keyWord == null ? null : randomMsg(reply.replyMsgMap.get(keyWord));
+    }
+
+    /**
+     * 从消息集合中随机一条消息
+     *
+     * @param msgList 消息集合
+     * @return 随机的消息，集合为空返回null
+     */
+    private static String randomMsg(List<String> msgList) {
+        if (msgList == null || msgList.isEmpty()) {
+            return null;
+        }
+        int i = ThreadLocalRandom.current().nextInt(msgList.size());
+        return msgList.get(i);
+    }
+
+    /**
+     * 关键字回复的不可变快照
+     */
+    private static class KeyWordReply {
+
+        private final Map<String, List<String>> replyMsgMap;
+
+        private final KeywordMatcher matcher;
+
+        private KeyWordReply(Map<String, List<String>> keyWordReplyMsgMap) {
+            this.replyMsgMap = keyWordReplyMsgMap == null ? Collections.emptyMap() : new HashMap<>(keyWordReplyMsgMap);
+            this.matcher = KeywordMatcher.compile(this.replyMsgMap.keySet());
+        }
+    }
+}
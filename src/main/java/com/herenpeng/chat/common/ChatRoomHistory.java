@@ -0,0 +1,160 @@
+package com.herenpeng.chat.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 房间最近的聊天记录，每个房间一个固定大小的环形缓冲区，保存已经编码好的消息帧
+ * <p>保存的是广播时编码好的消息帧，新用户进入房间时直接重放，不需要重新格式化和编码。
+ * 消息帧保存之后不会被修改，也不需要释放，比如大小正好的堆内存 ByteBuffer，重放时各自创建视图。
+ * 缓冲区满了之后覆盖最早的消息，最后一个成员离开房间时删除该房间的记录，聊天记录只保存在内存中</p>
+ * <p>只给还有成员的房间创建记录，比如最后一个成员离开之后才执行的机器人回复不会保存，
+ * 否则这份记录没有成员离开时删除，会一直占用内存</p>
+ * <p>保存消息和加入房间在房间的记录上互斥执行：保存消息时同时获取接收者，加入房间时同时获取快照，
+ * 所以一条消息要么在加入者拿到的快照中，要么加入者在它的接收者中，不会两边都不在，也不会两边都在</p>
+ * <p>保存条数通过 -Dchat.history.size 指定，默认 20 条，小于等于0表示不保存</p>
+ *
+ * @param <T> 消息帧类型
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public class ChatRoomHistory<T> {
+
+    /**
+     * 每个房间保存的消息条数
+     */
+    public static final int CAPACITY = Integer.getInteger("chat.history.size", 20);
+
+    private final int capacity;
+
+    /**
+     * 判断房间是否还有成员
+     */
+    private final Predicate<String> exists;
+
+    private final ConcurrentHashMap<String, Ring<T>> rooms = new ConcurrentHashMap<>();
+
+    /**
+     * @param capacity 每个房间保存的消息条数
+     * @param exists   判断房间是否还有成员
+     */
+    public ChatRoomHistory(int capacity, Predicate<String> exists) {
+        this.capacity = capacity;
+        this.exists = exists;
+    }
+
+    /**
+     * 保存一条消息，并在同一个原子操作中获取消息的接收者，房间已经没有成员时不保存
+     *
+     * @param room       房间名称
+     * @param frame      消息帧
+     * @param recipients 获取接收者，比如房间成员快照，在锁内执行，不能再访问聊天记录
+     * @param <R>        接收者类型
+     * @return 接收者
+     */
+    @SuppressWarnings("unchecked")
+    public <R> R record(String room, T frame, Supplier<R> recipients) {
+        if (capacity <= 0 || room == null) {
+            return recipients.get();
+        }
+        Object[] result = new Object[1];
+        // 在房间所在的哈希桶上执行，不会写入一个正在被删除的记录；
+        // 最后一个成员先离开房间再删除记录，所以这里看到房间还有成员时，创建的记录一定会被删除
+        rooms.compute(room, (name, ring) -> {
+            result[0] = recipients.get();
+            if (ring == null) {
+                if (!exists.test(name)) {
+                    return null;
+                }
+                ring = new Ring<>(capacity);
+            }
+            ring.add(frame);
+            return ring;
+        });
+        return (R) result[0];
+    }
+
+    /**
+     * 加入房间，在同一个原子操作中获取房间最近的聊天记录，按发送顺序排列
+     * <p>joiner 在锁内执行，只应该把快照放入用户的发送队列并加入房间成员，不能阻塞写出，也不能再访问聊天记录；
+     * 快照在加入房间成员之前放入发送队列，之后的实时消息都排在重放的聊天记录后面</p>
+     *
+     * @param room   房间名称
+     * @param joiner 拿到聊天记录快照后加入房间
+     */
+    public void join(String room, Consumer<List<T>> joiner) {
+        if (capacity <= 0) {
+            joiner.accept(Collections.emptyList());
+            return;
+        }
+        rooms.compute(room, (name, ring) -> {
+            joiner.accept(ring == null ? Collections.emptyList() : ring.snapshot());
+            return ring;
+        });
+    }
+
+    /**
+     * 删除房间的聊天记录
+     *
+     * @param room 房间名称
+     */
+    public void remove(String room) {
+        if (room != null) {
+            rooms.remove(room);
+        }
+    }
+
+    /**
+     * 删除所有房间的聊天记录
+     */
+    public void clear() {
+        rooms.clear();
+    }
+
+    /**
+     * 环形缓冲区，数组在创建时分配，之后不再扩容
+     */
+    private static class Ring<T> {
+
+        private final Object[] frames;
+
+        /**
+         * 下一条消息写入的位置
+         */
+        private int next;
+
+        private int size;
+
+        private Ring(int capacity) {
+            this.frames = new Object[capacity];
+        }
+
+        /**
+         * 写入一条消息，缓冲区满了之后覆盖最早的消息
+         *
+         * @param frame 消息帧
+         */
+        private synchronized void add(T frame) {
+            frames[next] = frame;
+            next = (next + 1) % frames.length;
+            if (size < frames.length) {
+                size++;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private synchronized List<T> snapshot() {
+            List<T> list = new ArrayList<>(size);
+            int start = (next - size + frames.length) % frames.length;
+            for (int i = 0; i < size; i++) {
+                list.add((T) frames[(start + i) % frames.length]);
+            }
+            return list;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.herenpeng.chat.common;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 聊天室房间注册表，按房间名称保存每个房间的成员
+ * <p>每个房间有自己的 {@link ChatRegistry}，房间内广播只遍历房间成员。
+ * 房间在第一个成员加入时创建，最后一个成员离开时删除，空房间不占用内存；
+ * 加入和离开在房间所在的哈希桶上原子执行，不会把成员加入一个正在被删除的房间</p>
+ *
+ * @param <T> 成员类型
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public class ChatRoomRegistry<T> {
+
+    /**
+     * 默认房间，用户登录后进入该房间，离开其他房间后回到该房间
+     */
+    public static final String DEFAULT_ROOM = "大厅";
+
+    /**
+     * 房间名称的最大长度
+     */
+    public static final int MAX_ROOM_NAME_LENGTH = 32;
+
+    private final ConcurrentHashMap<String, ChatRegistry<T>> rooms = new ConcurrentHashMap<>();
+
+    /**
+     * 加入房间，房间不存在时创建
+     *
+     * @param room   房间名称
+     * @param id     连接 id
+     * @param member 成员
+     */
+    public void join(String room, long id, T member) {
+        rooms.compute(room, (name, members) -> {
+            if (members == null) {
+                members = new ChatRegistry<>();
+            }
+            members.add(id, member);
+            return members;
+        });
+    }
+
+    /**
+     * 离开房间，房间没有成员之后删除
+     *
+     * @param room 房间名称，为null时不做处理
+     * @param id   连接 id
+     * @return 离开后房间不存在返回true，比如最后一个成员离开房间被删除，否则返回false
+     */
+    public boolean leave(String room, long id) {
+        if (room == null) {
+            return false;
+        }
+        return rooms.computeIfPresent(room, (name, members) -> {
+            members.remove(id);
+            return members.isEmpty() ? null : members;
+        }) == null;
+    }
+
+    /**
+     * 获取房间成员快照
+     *
+     * @param room 房间名称
+     * @return 成员快照，房间不存在时为空集合
+     */
+    public List<T> members(String room) {
+        ChatRegistry<T> members = room == null ? null : rooms.get(room);
+        return members == null ? Collections.emptyList() : members.snapshot();
+    }
+
+    /**
+     * 房间是否存在，也就是是否还有成员
+     *
+     * @param room 房间名称
+     * @return 存在返回true
+     */
+    public boolean contains(String room) {
+        return room != null && rooms.containsKey(room);
+    }
+
+    /**
+     * 当前存在的房间数量
+     *
+     * @return 房间数量
+     */
+    public int size() {
+        return rooms.size();
+    }
+
+    /**
+     * 删除所有房间
+     */
+    public void clear() {
+        rooms.clear();
+    }
+
+    /**
+     * 判断房间名称是否合法：不为空，不超过最大长度，不包含空白字符
+     *
+     * @param room 房间名称
+     * @return 合法返回true
+     */
+    public static boolean isValidName(String room) {
+        if (room == null || room.isEmpty() || room.length() > MAX_ROOM_NAME_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < room.length(); i++) {
+            if (Character.isWhitespace(room.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
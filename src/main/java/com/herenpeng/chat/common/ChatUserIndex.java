@@ -0,0 +1,82 @@
+package com.herenpeng.chat.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 用户名索引，按用户名查找在线用户的连接
+ * <p>登录时注册，用户名已经被占用时注册失败，所以同一时间一个用户名只对应一个连接；
+ * 登出时只移除自己注册的用户名，不会误删同名的新连接。按用户名查找是 O(1) 的，和在线人数无关</p>
+ *
+ * @param <T> 连接类型
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public class ChatUserIndex<T> {
+
+    /**
+     * 用户名的最大长度
+     */
+    public static final int MAX_USERNAME_LENGTH = 32;
+
+    private final ConcurrentHashMap<String, T> users = new ConcurrentHashMap<>();
+
+    /**
+     * 注册用户名
+     *
+     * @param username 用户名
+     * @param member   连接
+     * @return 注册成功返回true，用户名已经被占用返回false
+     */
+    public boolean register(String username, T member) {
+        return users.putIfAbsent(username, member) == null;
+    }
+
+    /**
+     * 注销用户名，只有用户名属于该连接时才注销
+     *
+     * @param username 用户名，为null时不做处理
+     * @param member   连接
+     */
+    public void unregister(String username, T member) {
+        if (username != null) {
+            users.remove(username, member);
+        }
+    }
+
+    /**
+     * 按用户名查找连接
+     *
+     * @param username 用户名
+     * @return 连接，用户不在线返回null
+     */
+    public T get(String username) {
+        return username == null ? null : users.get(username);
+    }
+
+    public int size() {
+        return users.size();
+    }
+
+    public void clear() {
+        users.clear();
+    }
+
+    /**
+     * 判断用户名是否合法：不为空，不超过最大长度，不包含空白字符，不以 / 开头
+     * <p>用户名不能包含空白字符，否则无法在 /msg 命令中指定</p>
+     *
+     * @param username 用户名
+     * @return 合法返回true
+     */
+    public static boolean isValidName(String username) {
+        if (username == null || username.isEmpty() || username.length() > MAX_USERNAME_LENGTH || username.charAt(0) == '/') {
+            return false;
+        }
+        for (int i = 0; i < username.length(); i++) {
+            if (Character.isWhitespace(username.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,237 @@
+package com.herenpeng.chat.common;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 多关键字匹配器，Aho-Corasick 自动机实现
+ * <p>所有关键字编译成一个自动机，扫描一遍消息就能找到所有命中的关键字，
+ * 耗时只和消息长度有关，和关键字数量无关</p>
+ * <p>编译完成后不可变，可以被多个线程同时使用。关键字变化时重新编译一个新的匹配器替换旧的</p>
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public final class KeywordMatcher {
+
+    private static final int ROOT = 0;
+
+    private static final int NONE = -1;
+
+    /**
+     * 关键字，下标即关键字编号
+     */
+    private final String[] keywords;
+
+    /**
+     * 每个状态的转移在 edgeChars、edgeTargets 中的起始下标，状态 i 的转移为 [edgeStart[i], edgeStart[i + 1])，按字符排序
+     */
+    private final int[] edgeStart;
+
+    private final char[] edgeChars;
+
+    private final int[] edgeTargets;
+
+    /**
+     * 关键字首字符的位图，处于根状态时不在位图中的字符直接跳过，不需要查找转移
+     */
+    private final long[] rootChars;
+
+    /**
+     * 失败指针：当前状态对应字符串的最长真后缀所在的状态
+     */
+    private final int[] fail;
+
+    /**
+     * 以当前状态结尾的最长关键字编号，没有为 NONE
+     */
+    private final int[] output;
+
+    /**
+     * 沿失败指针能到达的下一个有关键字的状态，没有为 NONE，用于找出同一位置结尾的所有关键字
+     */
+    private final int[] outputLink;
+
+    private KeywordMatcher(String[] keywords, int[] edgeStart, char[] edgeChars, int[] edgeTargets,
+                           int[] fail, int[] output, int[] outputLink) {
+        this.keywords = keywords;
+        this.edgeStart = edgeStart;
+        this.edgeChars = edgeChars;
+        this.edgeTargets = edgeTargets;
+        this.rootChars = new long[(Character.MAX_VALUE + 1) >>> 6];
+        for (int i = edgeStart[ROOT]; i < edgeStart[ROOT + 1]; i++) {
+            rootChars[edgeChars[i] >>> 6] |= 1L << edgeChars[i];
+        }
+        this.fail = fail;
+        this.output = output;
+        this.outputLink = outputLink;
+    }
+
+    /**
+     * 编译关键字，空关键字和重复关键字会被忽略
+     *
+     * @param keywords 关键字
+     * @return 匹配器
+     */
+    public static KeywordMatcher compile(Collection<String> keywords) {
+        List<String> words = new ArrayList<>(new LinkedHashSet<>(keywords));
+        words.removeIf(word -> word == null || word.isEmpty());
+
+        // 构建字典树
+        List<TreeMap<Character, Integer>> children = new ArrayList<>();
+        List<Integer> outputs = new ArrayList<>();
+        children.add(new TreeMap<>());
+        outputs.add(NONE);
+        for (int i = 0; i < words.size(); i++) {
+            String word = words.get(i);
+            int state = ROOT;
+            for (int j = 0; j < word.length(); j++) {
+                Integer next = children.get(state).get(word.charAt(j));
+                if (next == null) {
+                    next = children.size();
+                    children.get(state).put(word.charAt(j), next);
+                    children.add(new TreeMap<>());
+                    outputs.add(NONE);
+                }
+                state = next;
+            }
+            outputs.set(state, i);
+        }
+
+        // 按层遍历计算失败指针，父状态的失败指针总是先于子状态计算完成
+        int stateCount = children.size();
+        int[] fail = new int[stateCount];
+        int[] output = new int[stateCount];
+        int[] outputLink = new int[stateCount];
+        for (int i = 0; i < stateCount; i++) {
+            output[i] = outputs.get(i);
+        }
+        outputLink[ROOT] = NONE;
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int child : children.get(ROOT).values()) {
+            fail[child] = ROOT;
+            outputLink[child] = NONE;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (Map.Entry<Character, Integer> entry : children.get(state).entrySet()) {
+                char c = entry.getKey();
+                int child = entry.getValue();
+                int f = fail[state];
+                Integer next;
+                while ((next = children.get(f).get(c)) == null && f != ROOT) {
+                    f = fail[f];
+                }
+                fail[child] = next == null ? ROOT : next;
+                outputLink[child] = output[fail[child]] != NONE ? fail[child] : outputLink[fail[child]];
+                queue.add(child);
+            }
+        }
+
+        // 把转移压缩到数组中，查找时二分
+        int[] edgeStart = new int[stateCount + 1];
+        int edgeCount = 0;
+        for (int i = 0; i < stateCount; i++) {
+            edgeStart[i] = edgeCount;
+            edgeCount += children.get(i).size();
+        }
+        edgeStart[stateCount] = edgeCount;
+        char[] edgeChars = new char[edgeCount];
+        int[] edgeTargets = new int[edgeCount];
+        for (int i = 0; i < stateCount; i++) {
+            int index = edgeStart[i];
+            for (Map.Entry<Character, Integer> entry : children.get(i).entrySet()) {
+                edgeChars[index] = entry.getKey();
+                edgeTargets[index] = entry.getValue();
+                index++;
+            }
+        }
+        return new KeywordMatcher(words.toArray(new String[0]), edgeStart, edgeChars, edgeTargets, fail, output, outputLink);
+    }
+
+    /**
+     * 关键字数量
+     *
+     * @return 关键字数量
+     */
+    public int size() {
+        return keywords.length;
+    }
+
+    /**
+     * 查找消息中第一个命中的关键字，结尾位置最靠前的优先，同一位置结尾时较长的优先
+     *
+     * @param text 消息
+     * @return 命中的关键字，没有命中返回null
+     */
+    public String findFirst(String text) {
+        if (keywords.length == 0 || text == null) {
+            return null;
+        }
+        int state = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            state = next(state, text.charAt(i));
+            if (output[state] != NONE) {
+                return keywords[output[state]];
+            }
+            if (outputLink[state] != NONE) {
+                return keywords[output[outputLink[state]]];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 扫描一遍消息，找出所有命中的关键字
+     *
+     * @param text 消息
+     * @return 命中的关键字，按第一次出现的结尾位置排序，不重复
+     */
+    public List<String> findAll(String text) {
+        if (keywords.length == 0 || text == null) {
+            return Collections.emptyList();
+        }
+        Set<String> found = new LinkedHashSet<>();
+        int state = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            state = next(state, text.charAt(i));
+            for (int s = output[state] != NONE ? state : outputLink[state]; s != NONE; s = outputLink[s]) {
+                found.add(keywords[output[s]]);
+            }
+        }
+        return new ArrayList<>(found);
+    }
+
+    /**
+     * 状态转移，当前状态没有该字符的转移时沿失败指针回退
+     *
+     * @param state 当前状态
+     * @param c     字符
+     * @return 下一个状态
+     */
+    private int next(int state, char c) {
+        if (state == ROOT && (rootChars[c >>> 6] & (1L << c)) == 0) {
+            return ROOT;
+        }
+        while (true) {
+            int index = Arrays.binarySearch(edgeChars, edgeStart[state], edgeStart[state + 1], c);
+            if (index >= 0) {
+                return edgeTargets[index];
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = fail[state];
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.herenpeng.chat.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 并发的对数线性直方图，用于统计延迟分位数
+ * <p>每个 2 的幂次区间再等分为 32 个桶，相对误差不超过 1/32，占用的内存固定，
+ * 记录一次只需要一次原子加，多个线程可以同时记录</p>
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public class LatencyHistogram {
+
+    /**
+     * 每个 2 的幂次区间等分的桶数量的位数
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong totalCount = new AtomicLong();
+
+    private final AtomicLong totalValue = new AtomicLong();
+
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * 记录一个值，负数按 0 记录
+     *
+     * @param value 值，比如纳秒数
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(indexOf(value));
+        totalCount.incrementAndGet();
+        totalValue.addAndGet(value);
+        long max;
+        while (value > (max = maxValue.get()) && !maxValue.compareAndSet(max, value)) {
+            // 重试
+        }
+    }
+
+    /**
+     * 记录的值的数量
+     *
+     * @return 记录的值的数量
+     */
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * 记录的最大值
+     *
+     * @return 记录的最大值，没有记录时为 0
+     */
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    /**
+     * 记录的值的平均值
+     *
+     * @return 平均值，没有记录时为 0
+     */
+    public double getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) totalValue.get() / count;
+    }
+
+    /**
+     * 获取分位数对应的值，返回值所在桶的上界，不会超过记录的最大值
+     *
+     * @param percentile 百分位，比如 99.9
+     * @return 分位数对应的值，没有记录时为 0
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * Math.min(percentile, 100.0) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * 清空所有记录，清空过程中同时记录的值可能部分保留
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalValue.set(0);
+        maxValue.set(0);
+    }
+
+    /**
+     * 计算值所在的桶
+     *
+     * @param value 非负的值
+     * @return 桶下标
+     */
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    /**
+     * 计算桶能保存的最大值
+     *
+     * @param index 桶下标
+     * @return 桶的上界
+     */
+    private static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
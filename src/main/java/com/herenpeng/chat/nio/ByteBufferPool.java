@@ -0,0 +1,109 @@
+package com.herenpeng.chat.nio;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 有界的直接内存缓冲区池
+ * <p>每个线程（也就是每个反应器）有一个无锁的本地缓存，本地缓存满了再放入所有线程共享的有界队列，
+ * 共享队列也满了就直接丢弃，交给 GC 回收。池中的缓冲区大小都相同</p>
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public class ByteBufferPool {
+
+    /**
+     * 默认的缓冲区池，缓冲区大小 4KB，可以通过 -Dchat.buffer.size 修改
+     */
+    public static final ByteBufferPool DEFAULT = new ByteBufferPool(
+            Integer.getInteger("chat.buffer.size", 4096),
+            Integer.getInteger("chat.buffer.threadCacheSize", 64),
+            Integer.getInteger("chat.buffer.sharedSize", 1024));
+
+    /**
+     * 缓冲区大小
+     */
+    private final int bufferSize;
+
+    /**
+     * 每个线程本地缓存的最大数量
+     */
+    private final int threadCacheSize;
+
+    /**
+     * 线程本地缓存，只有所属线程访问，不需要同步
+     */
+    private final ThreadLocal<ArrayDeque<ByteBuffer>> threadCache = ThreadLocal.withInitial(ArrayDeque::new);
+
+    /**
+     * 所有线程共享的缓存
+     */
+    private final ArrayBlockingQueue<ByteBuffer> sharedCache;
+
+    /**
+     * 从池中拿到缓冲区的次数
+     */
+    private final LongAdder hitCount = new LongAdder();
+
+    /**
+     * 池中没有缓冲区，需要新分配的次数
+     */
+    private final LongAdder missCount = new LongAdder();
+
+    public ByteBufferPool(int bufferSize, int threadCacheSize, int sharedSize) {
+        this.bufferSize = bufferSize;
+        this.threadCacheSize = threadCacheSize;
+        this.sharedCache = new ArrayBlockingQueue<>(Math.max(1, sharedSize));
+    }
+
+    /**
+     * 借出一个缓冲区，处于写模式，用完之后需要调用 {@link #release(ByteBuffer)} 归还
+     *
+     * @return 直接内存缓冲区
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = threadCache.get().pollLast();
+        if (buffer == null) {
+            buffer = sharedCache.poll();
+        }
+        if (buffer == null) {
+            missCount.increment();
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        hitCount.increment();
+        return buffer;
+    }
+
+    /**
+     * 归还缓冲区，归还之后不能再使用
+     *
+     * @param buffer 缓冲区，不是从池中借出的缓冲区会被忽略
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferSize) {
+            return;
+        }
+        buffer.clear();
+        ArrayDeque<ByteBuffer> cache = threadCache.get();
+        if (cache.size() < threadCacheSize) {
+            cache.addLast(buffer);
+        } else {
+            sharedCache.offer(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+}
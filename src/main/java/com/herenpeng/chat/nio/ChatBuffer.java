@@ -0,0 +1,119 @@
+package com.herenpeng.chat.nio;
+
+import com.herenpeng.chat.protocol.ChatFrameCodec;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 编码好的消息帧，带引用计数
+ * <p>广播时一帧消息会同时放在多个连接的发送队列中，每个持有者一个引用，
+ * 最后一个持有者释放之后，如果内容来自缓冲区池，就归还给缓冲区池</p>
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public class ChatBuffer {
+
+    /**
+     * 帧内容，处于读模式，创建之后不再修改
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * 内容所属的缓冲区池，不是从池中借出的为null
+     */
+    private final ByteBufferPool pool;
+
+    private final AtomicInteger refCnt = new AtomicInteger(1);
+
+    private ChatBuffer(ByteBuffer buffer, ByteBufferPool pool) {
+        this.buffer = buffer;
+        this.pool = pool;
+    }
+
+    /**
+     * 编码一条文本消息，能放进池中缓冲区的消息使用池中的直接内存，否则使用堆内存
+     *
+     * @param pool 缓冲区池
+     * @param msg  文本消息
+     * @return 引用计数为1的消息帧
+     */
+    public static ChatBuffer encodeText(ByteBufferPool pool, String msg) {
+        ByteBuffer buffer = pool.acquire();
+        if (ChatFrameCodec.encodeText(msg, buffer)) {
+            buffer.flip();
+            return new ChatBuffer(buffer, pool);
+        }
+        pool.release(buffer);
+        return wrap(ChatFrameCodec.encodeText(msg));
+    }
+
+    /**
+     * 包装一个已经编码好的消息帧，不归还缓冲区池
+     *
+     * @param frame 消息帧，处于读模式
+     * @return 引用计数为1的消息帧
+     */
+    public static ChatBuffer wrap(ByteBuffer frame) {
+        return new ChatBuffer(frame, null);
+    }
+
+    /**
+     * 创建一个只读视图，视图有独立的读写位置
+     *
+     * @return 只读视图
+     */
+    public ByteBuffer view() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * 复制到大小正好的堆内存中，用于长期保存，不占用缓冲区池中的缓冲区
+     *
+     * @return 处于读模式的副本
+     */
+    public ByteBuffer copy() {
+        ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer.duplicate());
+        copy.flip();
+        return copy;
+    }
+
+    /**
+     * 帧的总长度
+     *
+     * @return 帧的总长度
+     */
+    public int length() {
+        return buffer.remaining();
+    }
+
+    /**
+     * 增加一个引用
+     *
+     * @return 当前对象
+     */
+    public ChatBuffer retain() {
+        int cnt = refCnt.getAndIncrement();
+        if (cnt <= 0) {
+            refCnt.getAndDecrement();
+            throw new IllegalStateException("消息帧已经被释放");
+        }
+        return this;
+    }
+
+    /**
+     * 释放一个引用，引用全部释放之后归还缓冲区池
+     */
+    public void release() {
+        int cnt = refCnt.decrementAndGet();
+        if (cnt == 0) {
+            if (pool != null) {
+                pool.release(buffer);
+            }
+        } else if (cnt < 0) {
+            throw new IllegalStateException("消息帧重复释放");
+        }
+    }
+}
@@ -1,25 +1,104 @@
 package com.herenpeng.chat.nio;
 
+import com.herenpeng.chat.protocol.ChatCompression;
+import com.herenpeng.chat.protocol.ChatFrame;
+import com.herenpeng.chat.protocol.ChatFrameCodec;
+import com.herenpeng.chat.protocol.ChatFrameDecoder;
+
+import javax.net.ssl.SSLException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.Inflater;
 
 /**
  * 聊天室客户端，NIO 实现版本
+ * <p>输入 /send 文件路径 分享文件，文件按数据块读取上传，不会一次读入内存；
+ * 输入 /get 文件 id 下载文件，下载的文件保存在 -Dchat.download.dir 目录中，默认为当前目录下的 downloads</p>
+ * <p>启动时指定 -Dchat.compress.level=1~9 会在连接建立后请求服务端压缩发给自己的消息，默认不压缩</p>
+ * <p>服务端开启了 TLS 时，客户端需要指定 -Dchat.tls.enabled=true，并通过 -Djavax.net.ssl.trustStore 指定信任的服务端证书，
+ * 选择器线程和输入线程共用同一个加密连接，读写时都需要持有它的锁</p>
+ * <p>输入线程等到连接建立、握手完成并且发出连接设置之后才写出，连接设置总是登录前的第一帧，
+ * 等待期间不占用 CPU</p>
  *
  * @author herenpeng
  * @since 2021-07-09 12:00:00
  */
 public class ChatClient {
 
+    /**
+     * 帧解码器，累积服务端消息的半包
+     */
+    private static final ChatFrameDecoder decoder = new ChatFrameDecoder(ChatFrameCodec.MAX_SERVER_FRAME_LENGTH);
+
+    /**
+     * 分享文件的命令，只在客户端处理
+     */
+    private static final String SEND = "/send";
+
+    /**
+     * 上传的数据块大小，不能超过服务端接收的帧内容最大长度
+     */
+    private static final int UPLOAD_CHUNK_SIZE = 32 * 1024;
+
+    /**
+     * 下载文件的保存目录
+     */
+    private static final Path DOWNLOAD_DIR = Paths.get(System.getProperty("chat.download.dir", "downloads"));
+
+    /**
+     * 正在下载的文件，只在选择器线程中访问
+     */
+    private static FileChannel download;
+
+    private static Path downloadPath;
+
+    private static long downloadRemaining;
+
+    /**
+     * 请求的压缩级别，0 表示不压缩
+     */
+    private static final int COMPRESS_LEVEL = Integer.getInteger("chat.compress.level", 0);
+
+    /**
+     * 服务端同意压缩后发来的预置字典，只在选择器线程中访问
+     */
+    private static byte[] compressDictionary;
+
+    private static final Inflater inflater = new Inflater(true);
+
+    /**
+     * TLS 连接，没有开启 TLS 时为null
+     */
+    private static ChatTlsChannel tlsChannel;
+
+    /**
+     * 发出连接设置之后打开，输入线程等它打开之后才能写出
+     */
+    private static final CountDownLatch ready = new CountDownLatch(1);
+
     public static void main(String[] args) {
         try (Selector selector = Selector.open();
              SocketChannel socket = SocketChannel.open()) {
+            if (ChatTls.ENABLED) {
+                // 在输入线程启动之前创建，之后所有的读写都经过加密连接
+                tlsChannel = ChatTls.client().connect(socket, "127.0.0.1", 12345);
+            }
             //连接服务端socket
             socket.configureBlocking(false);
             socket.connect(new InetSocketAddress("127.0.0.1", 12345));
@@ -34,6 +113,14 @@ public class ChatClient {
                     if (key.isConnectable()) {
                         if (socket.finishConnect()) {
                             socket.register(selector, SelectionKey.OP_READ);
+                            if (tlsChannel == null) {
+                                sendSettings(socket);
+                            } else {
+                                // 发送 ClientHello，握手完成后再协商压缩
+                                synchronized (tlsChannel) {
+                                    tlsChannel.handshake();
+                                }
+                            }
                         } else {
                             exit(socket);
                         }
@@ -52,19 +139,59 @@ public class ChatClient {
     private static void handleRead(SelectionKey key) {
         SocketChannel socket = (SocketChannel) key.channel();
         try {
-            StringBuilder sb = new StringBuilder();
-            ByteBuffer buffer = ByteBuffer.allocate(1024);
+            List<ChatFrame> frames = new ArrayList<>();
+            ByteBuffer buffer = ByteBufferPool.DEFAULT.acquire();
             int len;
-            while ((len = socket.read(buffer)) > 0) {
-                buffer.flip();
-                sb.append(new String(buffer.array(), buffer.position(), buffer.limit()));
-                buffer.clear();
+            boolean handshakeFinished = false;
+            try {
+                if (tlsChannel == null) {
+                    while ((len = socket.read(buffer)) > 0) {
+                        buffer.flip();
+                        decoder.decode(buffer, frames);
+                        buffer.clear();
+                    }
+                } else {
+                    synchronized (tlsChannel) {
+                        boolean handshaking = !tlsChannel.isHandshakeComplete();
+                        while ((len = tlsChannel.read(buffer)) > 0) {
+                            buffer.flip();
+                            decoder.decode(buffer, frames);
+                            buffer.clear();
+                        }
+                        tlsChannel.flush();
+                        handshakeFinished = handshaking && tlsChannel.isHandshakeComplete();
+                        if (handshakeFinished) {
+                            // 在同一段锁内发出连接设置，之后输入线程才能写出
+                            sendSettings(socket);
+                        }
+                    }
+                }
+            } finally {
+                ByteBufferPool.DEFAULT.release(buffer);
+            }
+            if (handshakeFinished) {
+                System.out.println("【系统消息】已建立加密连接：" + tlsChannel.getProtocol());
+            }
+            for (ChatFrame frame : frames) {
+                if (frame.getType() == ChatFrameCodec.TYPE_TEXT) {
+                    System.out.println(frame.getText());
+                } else if (frame.getType() == ChatFrameCodec.TYPE_COMPRESSED_TEXT) {
+                    System.out.println(ChatCompression.inflate(frame.getPayload(), compressDictionary, inflater));
+                } else if (frame.getType() == ChatFrameCodec.TYPE_SETTINGS) {
+                    handleSettings(frame.getPayload());
+                } else if (frame.getType() == ChatFrameCodec.TYPE_FILE_OFFER) {
+                    beginDownload(frame.getText());
+                } else if (frame.getType() == ChatFrameCodec.TYPE_FILE_CHUNK) {
+                    writeDownload(frame.getPayload());
+                }
             }
-            System.out.println(sb);
             if (len == -1) {
                 exit(socket);
             }
         } catch (Exception e) {
+            if (e instanceof SSLException) {
+                System.out.println("【系统消息】加密连接失败：" + e.getMessage());
+            }
             exit(socket);
         }
     }
@@ -74,11 +201,21 @@ public class ChatClient {
             Scanner scanner = new Scanner(System.in);
             System.out.println("请输入您的聊天室昵称：");
             while (true) {
-                String msg = scanner.next();
+                // 按行读取，一行是一条消息，消息中可以包含空格，比如 /join 房间名称
+                String msg = scanner.nextLine();
+                if (msg.isEmpty()) {
+                    continue;
+                }
                 System.out.println("---------------------------");
-                ByteBuffer buffer = ByteBuffer.wrap(msg.getBytes());
-                while (buffer.hasRemaining()) {
-                    socket.write(buffer);
+                if (msg.startsWith(SEND + " ")) {
+                    sendFile(socket, msg.substring(SEND.length()).trim());
+                    continue;
+                }
+                ChatBuffer frame = ChatBuffer.encodeText(ByteBufferPool.DEFAULT, msg);
+                try {
+                    writeFully(socket, frame.view());
+                } finally {
+                    frame.release();
                 }
             }
         } catch (Exception e) {
@@ -87,9 +224,175 @@ public class ChatClient {
         }
     }
 
+    /**
+     * 上传文件：先发送文件描述帧，再按数据块读取文件发送，同一时间内存中只有一个数据块
+     *
+     * @param socket 客户端socket
+     * @param file   文件路径
+     * @throws IOException 写出失败
+     */
+    private static void sendFile(SocketChannel socket, String file) throws IOException {
+        Path path = Paths.get(file);
+        if (!Files.isRegularFile(path)) {
+            System.out.println("【系统消息】文件不存在：" + file);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            String offer = size + "\n" + path.getFileName();
+            writeFully(socket, ChatFrameCodec.encode(ChatFrameCodec.TYPE_FILE_OFFER, offer.getBytes(StandardCharsets.UTF_8)));
+            ByteBuffer chunk = ByteBuffer.allocate(ChatFrameCodec.HEADER_LENGTH + UPLOAD_CHUNK_SIZE);
+            long position = 0;
+            while (position < size) {
+                chunk.clear();
+                chunk.position(ChatFrameCodec.HEADER_LENGTH);
+                chunk.limit((int) Math.min(chunk.capacity(), ChatFrameCodec.HEADER_LENGTH + size - position));
+                while (chunk.hasRemaining()) {
+                    if (channel.read(chunk, position + chunk.position() - ChatFrameCodec.HEADER_LENGTH) < 0) {
+                        throw new IOException("文件在上传过程中被截断：" + file);
+                    }
+                }
+                int length = chunk.position() - ChatFrameCodec.HEADER_LENGTH;
+                chunk.putInt(0, length).put(4, ChatFrameCodec.TYPE_FILE_CHUNK);
+                chunk.flip();
+                writeFully(socket, chunk);
+                position += length;
+            }
+            System.out.println("【系统消息】文件已上传：" + path.getFileName() + "（" + size + "字节）");
+        }
+    }
+
+    /**
+     * 输入线程写出一帧，等到发出连接设置之后才写出
+     *
+     * @param socket 客户端socket
+     * @param buffer 帧
+     * @throws IOException 写出失败，或者等待时被中断
+     */
+    private static void writeFully(SocketChannel socket, ByteBuffer buffer) throws IOException {
+        try {
+            ready.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("等待连接建立时被中断", e);
+        }
+        write(socket, buffer);
+    }
+
+    /**
+     * 写出一帧，开启 TLS 时加密写出，调用前握手必须已经完成
+     *
+     * @param socket 客户端socket
+     * @param buffer 帧
+     * @throws IOException 写出失败
+     */
+    private static void write(SocketChannel socket, ByteBuffer buffer) throws IOException {
+        if (tlsChannel == null) {
+            while (buffer.hasRemaining()) {
+                socket.write(buffer);
+            }
+            return;
+        }
+        while (true) {
+            synchronized (tlsChannel) {
+                tlsChannel.write(buffer);
+                if (!buffer.hasRemaining() && tlsChannel.flush()) {
+                    return;
+                }
+            }
+            // 发送缓冲区已满，让选择器线程有机会拿到锁读取
+            Thread.yield();
+        }
+    }
+
+    /**
+     * 登录前协商压缩，没有指定压缩级别时不发送，之后输入线程才能写出
+     * <p>开启 TLS 时在握手完成的同一段锁内调用，输入线程的帧不会抢在连接设置前面</p>
+     *
+     * @param socket 客户端socket
+     * @throws IOException 写出失败
+     */
+    private static void sendSettings(SocketChannel socket) throws IOException {
+        if (COMPRESS_LEVEL > 0) {
+            write(socket, ChatFrameCodec.encode(ChatFrameCodec.TYPE_SETTINGS,
+                    ChatCompression.settings(COMPRESS_LEVEL).getBytes(StandardCharsets.UTF_8)));
+        }
+        ready.countDown();
+    }
+
+    /**
+     * 处理服务端回复的连接设置：第一行是最终使用的设置，开启压缩时之后是预置字典
+     *
+     * @param payload 帧内容
+     */
+    private static void handleSettings(byte[] payload) {
+        int newline = 0;
+        while (newline < payload.length && payload[newline] != '\n') {
+            newline++;
+        }
+        String settings = new String(payload, 0, newline, StandardCharsets.UTF_8);
+        if (ChatCompression.parseLevel(settings) > 0) {
+            compressDictionary = Arrays.copyOfRange(payload, Math.min(newline + 1, payload.length), payload.length);
+            System.out.println("【系统消息】已开启消息压缩：" + settings);
+        } else {
+            System.out.println("【系统消息】服务端没有开启消息压缩");
+        }
+    }
+
+    /**
+     * 开始下载一个文件，内容为“文件 id\n文件大小\n文件名”
+     *
+     * @param offer 文件描述
+     * @throws IOException 创建文件失败
+     */
+    private static void beginDownload(String offer) throws IOException {
+        closeDownload();
+        String[] parts = offer.split("\n", 3);
+        Files.createDirectories(DOWNLOAD_DIR);
+        // 文件名前加上文件 id，同名的文件不会互相覆盖
+        downloadPath = DOWNLOAD_DIR.resolve(parts[0] + "-" + Paths.get(parts[2]).getFileName());
+        download = FileChannel.open(downloadPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        downloadRemaining = Long.parseLong(parts[1]);
+        System.out.println("【系统消息】开始下载文件：" + parts[2] + "（" + downloadRemaining + "字节）");
+        if (downloadRemaining == 0) {
+            finishDownload();
+        }
+    }
+
+    private static void writeDownload(byte[] payload) throws IOException {
+        if (download == null) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        while (buffer.hasRemaining()) {
+            download.write(buffer);
+        }
+        downloadRemaining -= payload.length;
+        if (downloadRemaining <= 0) {
+            finishDownload();
+        }
+    }
+
+    private static void finishDownload() throws IOException {
+        closeDownload();
+        System.out.println("【系统消息】文件已保存：" + downloadPath.toAbsolutePath());
+    }
+
+    private static void closeDownload() throws IOException {
+        if (download != null) {
+            download.close();
+            download = null;
+        }
+    }
+
 
     private static void exit(SocketChannel socket) {
         try {
+            if (tlsChannel != null) {
+                synchronized (tlsChannel) {
+                    tlsChannel.close();
+                }
+            }
             socket.close();
         } catch (IOException e) {
             System.out.println("【系统消息】聊天室发生异常");
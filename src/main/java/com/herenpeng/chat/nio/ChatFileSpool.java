@@ -0,0 +1,281 @@
+package com.herenpeng.chat.nio;
+
+import com.herenpeng.chat.common.ChatLogger;
+import com.herenpeng.chat.common.ChatMetrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 文件暂存区，用户分享的文件先上传到暂存文件，其他用户再从暂存文件下载
+ * <p>上传的数据块直接追加写入暂存文件，不会把整个文件放到堆内存中；下载时通过
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)} 从暂存文件直接传输到 socket，见{@link ChatFileTransfer}</p>
+ * <p>暂存目录通过 -Dchat.file.dir 指定，默认为临时目录下的 chat-files；单个文件最大 -Dchat.file.maxSize 字节，默认 100MB；
+ * 最多保留 -Dchat.file.maxFiles 个文件，默认 16 个，超过时删除最早分享的文件，正在下载的连接不受影响</p>
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public class ChatFileSpool {
+
+    /**
+     * 单个文件的最大字节数
+     */
+    public static final long MAX_FILE_SIZE = Long.getLong("chat.file.maxSize", 100L * 1024 * 1024);
+
+    /**
+     * 最多保留的文件数量
+     */
+    public static final int MAX_FILES = Integer.getInteger("chat.file.maxFiles", 16);
+
+    /**
+     * 文件名的最大长度
+     */
+    public static final int MAX_NAME_LENGTH = 128;
+
+    private final Path dir = Paths.get(System.getProperty("chat.file.dir",
+            Paths.get(System.getProperty("java.io.tmpdir"), "chat-files").toString()));
+
+    private final AtomicLong fileId = new AtomicLong();
+
+    private final Map<Long, SpooledFile> files = new ConcurrentHashMap<>();
+
+    /**
+     * 按分享顺序保存的文件 id，用于删除最早分享的文件
+     */
+    private final ArrayDeque<Long> order = new ArrayDeque<>();
+
+    private final LongAdder uploadCount = new LongAdder();
+
+    private final LongAdder downloadCount = new LongAdder();
+
+    /**
+     * 注册监控指标
+     */
+    public void start() {
+        ChatMetrics.registerGauge("file_uploads_total", uploadCount::sum);
+        ChatMetrics.registerGauge("file_downloads_total", downloadCount::sum);
+    }
+
+    /**
+     * 开始上传一个文件，创建暂存文件
+     *
+     * @param room     分享到的房间
+     * @param username 分享的用户
+     * @param name     文件名，只保留最后一级名称
+     * @param size     文件大小
+     * @return 上传状态
+     * @throws IOException 文件大小或者文件名不合法，或者暂存文件创建失败
+     */
+    public Upload begin(String room, String username, String name, long size) throws IOException {
+        if (size < 0 || size > MAX_FILE_SIZE) {
+            throw new IOException("文件大小不能超过" + MAX_FILE_SIZE + "字节");
+        }
+        Path fileName;
+        try {
+            fileName = name == null || name.trim().isEmpty() ? null : Paths.get(name.trim()).getFileName();
+        } catch (InvalidPathException e) {
+            fileName = null;
+        }
+        if (fileName == null || fileName.toString().length() > MAX_NAME_LENGTH) {
+            throw new IOException("文件名不能为空，最长" + MAX_NAME_LENGTH + "个字符");
+        }
+        Files.createDirectories(dir);
+        Path path = Files.createTempFile(dir, "chat-", ".spool");
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        return new Upload(new SpooledFile(fileId.incrementAndGet(), room, username, fileName.toString(), size, path), channel);
+    }
+
+    /**
+     * 上传完成，文件可以被下载，超过保留数量时删除最早分享的文件
+     *
+     * @param upload 上传状态
+     * @return 可以下载的文件
+     * @throws IOException 关闭暂存文件失败
+     */
+    public SpooledFile complete(Upload upload) throws IOException {
+        upload.channel.close();
+        SpooledFile file = upload.file;
+        files.put(file.getId(), file);
+        uploadCount.increment();
+        Long evicted = null;
+        synchronized (order) {
+            order.addLast(file.getId());
+            if (MAX_FILES > 0 && order.size() > MAX_FILES) {
+                evicted = order.pollFirst();
+            }
+        }
+        if (evicted != null) {
+            delete(files.remove(evicted));
+        }
+        return file;
+    }
+
+    /**
+     * 放弃上传，删除暂存文件
+     *
+     * @param upload 上传状态
+     */
+    public void abort(Upload upload) {
+        try {
+            upload.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        delete(upload.file);
+    }
+
+    /**
+     * 打开一个文件用于下载
+     *
+     * @param file 文件
+     * @return 下载状态，由调用者关闭
+     * @throws IOException 暂存文件已经被删除
+     */
+    public ChatFileTransfer open(SpooledFile file) throws IOException {
+        ChatFileTransfer transfer = new ChatFileTransfer(file, FileChannel.open(file.getPath(), StandardOpenOption.READ));
+        downloadCount.increment();
+        return transfer;
+    }
+
+    /**
+     * 获取可以下载的文件
+     *
+     * @param id 文件 id
+     * @return 文件，不存在或者已经被删除返回null
+     */
+    public SpooledFile get(long id) {
+        return files.get(id);
+    }
+
+    /**
+     * 删除所有暂存文件
+     */
+    public void clear() {
+        for (SpooledFile file : files.values()) {
+            delete(file);
+        }
+        files.clear();
+        synchronized (order) {
+            order.clear();
+        }
+    }
+
+    private static void delete(SpooledFile file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file.getPath());
+        } catch (IOException e) {
+            ChatLogger.log("【系统消息】删除暂存文件失败：" + file.getPath() + "，" + e.getMessage());
+        }
+    }
+
+    /**
+     * 一个用户正在上传的文件，只在用户所属的反应器线程中访问
+     */
+    public static class Upload {
+
+        private final SpooledFile file;
+
+        private final FileChannel channel;
+
+        private long received;
+
+        private Upload(SpooledFile file, FileChannel channel) {
+            this.file = file;
+            this.channel = channel;
+        }
+
+        /**
+         * 追加写入一个数据块
+         *
+         * @param chunk 数据块
+         * @return 文件已经全部上传返回true
+         * @throws IOException 数据超过了文件大小，或者写入失败
+         */
+        public boolean write(ByteBuffer chunk) throws IOException {
+            if (received + chunk.remaining() > file.getSize()) {
+                throw new IOException("文件数据超过了文件大小：" + file.getSize());
+            }
+            while (chunk.hasRemaining()) {
+                received += channel.write(chunk);
+            }
+            return isComplete();
+        }
+
+        public boolean isComplete() {
+            return received == file.getSize();
+        }
+
+        public SpooledFile getFile() {
+            return file;
+        }
+    }
+
+    /**
+     * 已经上传完成的文件
+     */
+    public static class SpooledFile {
+
+        private final long id;
+
+        /**
+         * 分享到的房间，只有房间内的用户可以下载
+         */
+        private final String room;
+
+        private final String username;
+
+        private final String name;
+
+        private final long size;
+
+        private final Path path;
+
+        private SpooledFile(long id, String room, String username, String name, long size, Path path) {
+            this.id = id;
+            this.room = room;
+            this.username = username;
+            this.name = name;
+            this.size = size;
+            this.path = path;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getRoom() {
+            return room;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.herenpeng.chat.nio;
+
+import com.herenpeng.chat.protocol.ChatFrameCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 一次文件下载，只在接收者所属的反应器线程中访问
+ * <p>先写出一个{@link ChatFrameCodec#TYPE_FILE_OFFER}帧描述文件，再把文件切成若干个{@link ChatFrameCodec#TYPE_FILE_CHUNK}帧，
+ * 每个数据块的帧头写出之后，数据通过{@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * 从暂存文件直接传输到 socket，不经过堆内存</p>
+ * <p>数据块大小通过 -Dchat.file.chunkSize 指定，默认 64KB。一个数据块写完之后发送方可以先写出其他消息，
+ * 所以大文件传输不会阻塞聊天消息</p>
+ * <p>文件描述帧和数据块帧一样由{@link #nextChunk()}开始，发送方在发送队列写空之后才开始下一帧，
+ * 所以下载请求到达时即使有消息只写出了一半，文件帧也不会插入到它的中间</p>
+ * <p>开启 TLS 时数据需要加密，无法直接传输到 socket，transferTo 会先把数据读入内存，再交给{@link ChatTlsChannel}加密写出</p>
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public class ChatFileTransfer {
+
+    /**
+     * 数据块大小
+     */
+    public static final int CHUNK_SIZE = Math.max(1, Integer.getInteger("chat.file.chunkSize", 64 * 1024));
+
+    private final FileChannel channel;
+
+    private final long size;
+
+    /**
+     * 文件中下一个要传输的位置
+     */
+    private long position;
+
+    /**
+     * 还没有开始写出的文件描述帧，开始写出后为空
+     */
+    private ByteBuffer offer;
+
+    /**
+     * 当前帧还没有写出的帧头，文件描述帧整帧都在这里
+     */
+    private ByteBuffer header = ByteBuffer.allocate(0);
+
+    /**
+     * 当前数据块还没有传输的字节数
+     */
+    private long chunkRemaining;
+
+    ChatFileTransfer(ChatFileSpool.SpooledFile file, FileChannel channel) {
+        this.channel = channel;
+        this.size = file.getSize();
+        String offer = file.getId() + "\n" + file.getSize() + "\n" + file.getName();
+        this.offer = ChatFrameCodec.encode(ChatFrameCodec.TYPE_FILE_OFFER, offer.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 当前帧是否还没有写完，没写完之前不能写出其他消息，否则对端会收到半帧
+     *
+     * @return 没写完返回true
+     */
+    public boolean isInFrame() {
+        return header.hasRemaining() || chunkRemaining > 0;
+    }
+
+    /**
+     * 开始下一帧，第一帧是文件描述帧，之后是数据块帧，只能在发送队列写空之后调用
+     *
+     * @return 文件已经全部传输完返回false
+     */
+    public boolean nextChunk() {
+        if (offer != null) {
+            header = offer;
+            offer = null;
+            return true;
+        }
+        if (position >= size) {
+            return false;
+        }
+        int length = (int) Math.min(CHUNK_SIZE, size - position);
+        header = ChatFrameCodec.encodeHeader(ChatFrameCodec.TYPE_FILE_CHUNK, length);
+        chunkRemaining = length;
+        return true;
+    }
+
+    /**
+     * 尽可能多地写出当前帧
+     *
+     * @param socket 接收者socket，开启 TLS 时为加密连接
+     * @return 写出的字节数
+     * @throws IOException 写出失败，或者暂存文件被截断
+     */
+    public long write(WritableByteChannel socket) throws IOException {
+        long written = 0;
+        if (header.hasRemaining()) {
+            written += socket.write(header);
+            if (header.hasRemaining()) {
+                return written;
+            }
+        }
+        while (chunkRemaining > 0) {
+            long transferred = channel.transferTo(position, chunkRemaining, socket);
+            if (transferred <= 0) {
+                if (position >= channel.size()) {
+                    throw new IOException("暂存文件已被截断");
+                }
+                // 对端 TCP 窗口已满
+                break;
+            }
+            position += transferred;
+            chunkRemaining -= transferred;
+            written += transferred;
+        }
+        return written;
+    }
+
+    /**
+     * 文件是否已经全部写出
+     *
+     * @return 全部写出返回true
+     */
+    public boolean isDone() {
+        return offer == null && !isInFrame() && position >= size;
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,542 @@
+package com.herenpeng.chat.nio;
+
+import com.herenpeng.chat.common.LatencyHistogram;
+import com.herenpeng.chat.protocol.ChatFrame;
+import com.herenpeng.chat.protocol.ChatFrameCodec;
+import com.herenpeng.chat.protocol.ChatFrameDecoder;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 聊天室压测客户端，不需要控制台输入
+ * <p>模拟大量用户连接服务端，其中一部分用户按固定速率发送消息，消息中带有计划发送的时间，
+ * 所有收到消息的用户统计从发送到收到的扇出延迟。结果以 JSON 格式输出，方便对比不同版本的服务端</p>
+ * <p>压测参数通过启动参数指定：</p>
+ * <ul>
+ *     <li>-Dchat.load.host 服务端地址，默认 127.0.0.1</li>
+ *     <li>-Dchat.load.port 服务端端口，默认 12345</li>
+ *     <li>-Dchat.load.users 用户数量，默认 1000</li>
+ *     <li>-Dchat.load.senders 发送消息的用户数量，默认 10</li>
+ *     <li>-Dchat.load.rate 所有用户每秒发送的消息总数，默认 100</li>
+ *     <li>-Dchat.load.messageSize 消息内容的填充长度，默认 64</li>
+ *     <li>-Dchat.load.warmup 预热秒数，预热期间的消息不统计，默认 5</li>
+ *     <li>-Dchat.load.duration 统计秒数，默认 30</li>
+ *     <li>-Dchat.load.drain 停止发送后等待消息送达的秒数，默认 5</li>
+ *     <li>-Dchat.load.threads 选择器线程数量，默认为 CPU 核数</li>
+ *     <li>-Dchat.load.label 结果中的标签，比如服务端版本</li>
+ *     <li>-Dchat.load.out 结果输出文件，默认输出到标准输出</li>
+ * </ul>
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public class ChatLoadGenerator {
+
+    private static final String HOST = System.getProperty("chat.load.host", "127.0.0.1");
+
+    private static final int PORT = Integer.getInteger("chat.load.port", 12345);
+
+    private static final int USERS = Integer.getInteger("chat.load.users", 1000);
+
+    private static final int SENDERS = Math.min(USERS, Integer.getInteger("chat.load.senders", 10));
+
+    private static final int RATE = Integer.getInteger("chat.load.rate", 100);
+
+    private static final int MESSAGE_SIZE = Integer.getInteger("chat.load.messageSize", 64);
+
+    private static final int WARMUP_SECONDS = Integer.getInteger("chat.load.warmup", 5);
+
+    private static final int DURATION_SECONDS = Integer.getInteger("chat.load.duration", 30);
+
+    private static final int DRAIN_SECONDS = Integer.getInteger("chat.load.drain", 5);
+
+    private static final int THREADS = Math.max(1, Math.min(USERS,
+            Integer.getInteger("chat.load.threads", Runtime.getRuntime().availableProcessors())));
+
+    private static final String LABEL = System.getProperty("chat.load.label", "");
+
+    private static final String OUT = System.getProperty("chat.load.out");
+
+    /**
+     * 每个选择器线程同时进行中的连接数上限，避免瞬间打满服务端的接入队列
+     */
+    private static final int MAX_PENDING_CONNECTS = 64;
+
+    /**
+     * 等待所有用户连接成功的超时时间
+     */
+    private static final long CONNECT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(Integer.getInteger("chat.load.connectTimeout", 300));
+
+    /**
+     * 压测消息的标记，标记后面是计划发送时间的纳秒数
+     */
+    private static final String LOAD_MARKER = "#load:";
+
+    /**
+     * 消息的填充内容
+     */
+    private static final String PADDING = padding(MESSAGE_SIZE);
+
+    /**
+     * 开始统计的时间，计划发送时间不早于该时间的消息才统计
+     */
+    private static volatile long measureStartNanos = Long.MAX_VALUE;
+
+    /**
+     * 是否发送消息
+     */
+    private static volatile boolean sending;
+
+    /**
+     * 选择器线程是否继续运行
+     */
+    private static volatile boolean running = true;
+
+    private static final AtomicInteger connected = new AtomicInteger();
+
+    private static final LongAdder connectFailed = new LongAdder();
+
+    private static final LongAdder disconnected = new LongAdder();
+
+    /**
+     * 统计期间发送的消息数
+     */
+    private static final LongAdder sent = new LongAdder();
+
+    /**
+     * 统计期间发送的消息被其他用户收到的次数
+     */
+    private static final LongAdder delivered = new LongAdder();
+
+    /**
+     * 扇出延迟，单位纳秒
+     */
+    private static final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * 启动类
+     *
+     * @param args 启动参数
+     * @throws Exception 抛出异常
+     */
+    public static void main(String[] args) throws Exception {
+        LoadWorker[] workers = new LoadWorker[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            workers[i] = new LoadWorker();
+        }
+        for (int i = 0; i < USERS; i++) {
+            workers[i % THREADS].addUser(new LoadUser(i, i < SENDERS));
+        }
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            threads[i] = new Thread(workers[i], "chat-load-" + i);
+            threads[i].start();
+        }
+
+        progress("正在连接 " + HOST + ":" + PORT + "，用户数量：" + USERS);
+        long connectDeadline = System.nanoTime() + CONNECT_TIMEOUT_NANOS;
+        while (connected.get() + connectFailed.intValue() < USERS && System.nanoTime() < connectDeadline) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        progress("连接成功：" + connected.get() + "，连接失败：" + connectFailed.sum());
+
+        sending = true;
+        progress("预热 " + WARMUP_SECONDS + " 秒");
+        TimeUnit.SECONDS.sleep(WARMUP_SECONDS);
+        long measureStart = System.nanoTime();
+        measureStartNanos = measureStart;
+        progress("统计 " + DURATION_SECONDS + " 秒");
+        TimeUnit.SECONDS.sleep(DURATION_SECONDS);
+        sending = false;
+        long measureEnd = System.nanoTime();
+        progress("等待消息送达 " + DRAIN_SECONDS + " 秒");
+        TimeUnit.SECONDS.sleep(DRAIN_SECONDS);
+
+        running = false;
+        for (int i = 0; i < THREADS; i++) {
+            workers[i].selector.wakeup();
+            threads[i].join();
+        }
+        report(measureEnd - measureStart);
+    }
+
+    /**
+     * 输出 JSON 格式的压测结果
+     *
+     * @param measureNanos 统计时长
+     * @throws IOException 抛出异常
+     */
+    private static void report(long measureNanos) throws IOException {
+        double seconds = measureNanos / 1e9;
+        long sentCount = sent.sum();
+        long deliveredCount = delivered.sum();
+        // 每条消息会发给除了发送者之外的所有在线用户
+        long expected = sentCount * Math.max(0, connected.get() - 1);
+        String json = "{"
+                + "\"label\":\"" + LABEL.replace("\\", "\\\\").replace("\"", "\\\"") + "\","
+                + "\"server\":\"" + HOST + ":" + PORT + "\","
+                + "\"users\":" + USERS + ","
+                + "\"senders\":" + SENDERS + ","
+                + "\"targetRate\":" + RATE + ","
+                + "\"messageSize\":" + MESSAGE_SIZE + ","
+                + "\"threads\":" + THREADS + ","
+                + "\"durationSeconds\":" + format(seconds) + ","
+                + "\"connected\":" + connected.get() + ","
+                + "\"connectFailed\":" + connectFailed.sum() + ","
+                + "\"disconnected\":" + disconnected.sum() + ","
+                + "\"sent\":" + sentCount + ","
+                + "\"expectedDeliveries\":" + expected + ","
+                + "\"delivered\":" + deliveredCount + ","
+                + "\"sendThroughput\":" + format(sentCount / seconds) + ","
+                + "\"deliveryThroughput\":" + format(deliveredCount / seconds) + ","
+                + "\"latencyMicros\":{"
+                + "\"p50\":" + micros(latency.getValueAtPercentile(50)) + ","
+                + "\"p99\":" + micros(latency.getValueAtPercentile(99)) + ","
+                + "\"p999\":" + micros(latency.getValueAtPercentile(99.9)) + ","
+                + "\"max\":" + micros(latency.getMax()) + ","
+                + "\"mean\":" + format(latency.getMean() / 1000) + "}"
+                + "}\n";
+        if (OUT == null || OUT.isEmpty()) {
+            System.out.print(json);
+            System.out.flush();
+        } else {
+            try (OutputStream os = new FileOutputStream(OUT)) {
+                os.write(json.getBytes(StandardCharsets.UTF_8));
+            }
+            progress("压测结果已写入：" + OUT);
+        }
+    }
+
+    /**
+     * 统计一条收到的消息
+     *
+     * @param text 消息内容
+     */
+    private static void onMessage(String text) {
+        int index = text.indexOf(LOAD_MARKER);
+        if (index < 0) {
+            return;
+        }
+        long sendNanos = 0;
+        for (int i = index + LOAD_MARKER.length(); i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            sendNanos = sendNanos * 10 + (c - '0');
+        }
+        // 预热期间发送的消息不统计
+        if (sendNanos >= measureStartNanos) {
+            delivered.increment();
+            latency.record(System.nanoTime() - sendNanos);
+        }
+    }
+
+    private static String micros(long nanos) {
+        return format(nanos / 1000.0);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+
+    private static String padding(int size) {
+        StringBuilder sb = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            sb.append('x');
+        }
+        return sb.toString();
+    }
+
+    private static void progress(String msg) {
+        System.err.println("【压测】" + msg);
+    }
+
+    /**
+     * 一个选择器线程，负责一部分用户的连接、读写和发送节奏
+     */
+    private static class LoadWorker implements Runnable {
+
+        private final Selector selector;
+
+        private final List<LoadUser> users = new ArrayList<>();
+
+        private final List<LoadUser> senders = new ArrayList<>();
+
+        /**
+         * 下一个发起连接的用户下标
+         */
+        private int nextConnect;
+
+        /**
+         * 进行中的连接数
+         */
+        private int pendingConnects;
+
+        /**
+         * 下一条消息的计划发送时间
+         */
+        private long nextSendNanos;
+
+        /**
+         * 下一个发送消息的用户下标
+         */
+        private int nextSender;
+
+        private LoadWorker() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        private void addUser(LoadUser user) {
+            users.add(user);
+            if (user.sender) {
+                senders.add(user);
+            }
+        }
+
+        @Override
+        public void run() {
+            // 每个线程分到的发送速率和发送用户数量成正比
+            long intervalNanos = senders.isEmpty() || RATE <= 0 ? 0 : TimeUnit.SECONDS.toNanos(SENDERS) / ((long) RATE * senders.size());
+            try {
+                while (running) {
+                    connectMore();
+                    long timeout = 10;
+                    if (sending && intervalNanos > 0) {
+                        long now = System.nanoTime();
+                        if (nextSendNanos == 0) {
+                            nextSendNanos = now;
+                        }
+                        // 按计划时间发送，落后时补发，计划时间作为发送时间，避免协调遗漏
+                        while (nextSendNanos <= now) {
+                            send(nextSendNanos);
+                            nextSendNanos += intervalNanos;
+                        }
+                        timeout = Math.max(1, TimeUnit.NANOSECONDS.toMillis(nextSendNanos - now));
+                    }
+                    selector.select(timeout);
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey key = iterator.next();
+                        iterator.remove();
+                        handleKey(key);
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                for (LoadUser user : users) {
+                    user.close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        /**
+         * 发起连接，进行中的连接数不超过上限
+         */
+        private void connectMore() {
+            while (pendingConnects < MAX_PENDING_CONNECTS && nextConnect < users.size()) {
+                LoadUser user = users.get(nextConnect++);
+                try {
+                    SocketChannel socket = SocketChannel.open();
+                    socket.configureBlocking(false);
+                    user.socket = socket;
+                    if (socket.connect(new InetSocketAddress(HOST, PORT))) {
+                        onConnected(socket.register(selector, SelectionKey.OP_READ, user));
+                    } else {
+                        socket.register(selector, SelectionKey.OP_CONNECT, user);
+                        pendingConnects++;
+                    }
+                } catch (IOException e) {
+                    connectFailed.increment();
+                    user.close();
+                }
+            }
+        }
+
+        private void handleKey(SelectionKey key) {
+            LoadUser user = (LoadUser) key.attachment();
+            try {
+                if (key.isValid() && key.isConnectable()) {
+                    pendingConnects--;
+                    if (!user.socket.finishConnect()) {
+                        throw new IOException("连接失败");
+                    }
+                    key.interestOps(SelectionKey.OP_READ);
+                    onConnected(key);
+                }
+                if (key.isValid() && key.isReadable()) {
+                    read(user);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    flush(user);
+                }
+            } catch (IOException e) {
+                if (user.key == null) {
+                    connectFailed.increment();
+                } else if (user.open) {
+                    disconnected.increment();
+                }
+                user.close();
+            }
+        }
+
+        /**
+         * 连接成功之后发送昵称登录
+         *
+         * @param key SelectionKey 对象
+         * @throws IOException 抛出异常
+         */
+        private void onConnected(SelectionKey key) throws IOException {
+            LoadUser user = (LoadUser) key.attachment();
+            user.key = key;
+            user.open = true;
+            connected.incrementAndGet();
+            write(user, "load-" + user.id);
+        }
+
+        /**
+         * 轮流选择一个发送用户发送一条消息
+         *
+         * @param sendNanos 计划发送时间
+         */
+        private void send(long sendNanos) {
+            for (int i = 0; i < senders.size(); i++) {
+                LoadUser user = senders.get(nextSender);
+                nextSender = (nextSender + 1) % senders.size();
+                if (user.open) {
+                    try {
+                        write(user, LOAD_MARKER + sendNanos + " " + PADDING);
+                        if (sendNanos >= measureStartNanos) {
+                            sent.increment();
+                        }
+                    } catch (IOException e) {
+                        disconnected.increment();
+                        user.close();
+                    }
+                    return;
+                }
+            }
+        }
+
+        private void read(LoadUser user) throws IOException {
+            List<ChatFrame> frames = user.frames;
+            ByteBuffer buffer = ByteBufferPool.DEFAULT.acquire();
+            int len;
+            try {
+                while ((len = user.socket.read(buffer)) > 0) {
+                    buffer.flip();
+                    user.decoder.decode(buffer, frames);
+                    buffer.clear();
+                }
+            } finally {
+                ByteBufferPool.DEFAULT.release(buffer);
+            }
+            for (ChatFrame frame : frames) {
+                if (frame.getType() == ChatFrameCodec.TYPE_TEXT) {
+                    onMessage(frame.getText());
+                }
+            }
+            frames.clear();
+            if (len == -1) {
+                throw new IOException("服务端关闭了连接");
+            }
+        }
+
+        private void write(LoadUser user, String msg) throws IOException {
+            user.writeQueue.add(ChatBuffer.encodeText(ByteBufferPool.DEFAULT, msg));
+            if (user.writeView == null) {
+                flush(user);
+            }
+        }
+
+        /**
+         * 写出发送队列，写不完时关注写事件，等待下次可写时继续
+         *
+         * @param user 用户
+         * @throws IOException 抛出异常
+         */
+        private void flush(LoadUser user) throws IOException {
+            ChatBuffer frame;
+            while ((frame = user.writeQueue.peek()) != null) {
+                if (user.writeView == null) {
+                    user.writeView = frame.view();
+                }
+                user.socket.write(user.writeView);
+                if (user.writeView.hasRemaining()) {
+                    user.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                user.writeQueue.poll();
+                user.writeView = null;
+                frame.release();
+            }
+            user.key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * 模拟的用户，只在所属的选择器线程中访问
+     */
+    private static class LoadUser {
+
+        private final int id;
+
+        private final boolean sender;
+
+        private final ChatFrameDecoder decoder = new ChatFrameDecoder(ChatFrameCodec.MAX_SERVER_FRAME_LENGTH);
+
+        private final List<ChatFrame> frames = new ArrayList<>();
+
+        private final Queue<ChatBuffer> writeQueue = new ArrayDeque<>();
+
+        private ByteBuffer writeView;
+
+        private SocketChannel socket;
+
+        private SelectionKey key;
+
+        private boolean open;
+
+        private LoadUser(int id, boolean sender) {
+            this.id = id;
+            this.sender = sender;
+        }
+
+        private void close() {
+            open = false;
+            ChatBuffer frame;
+            while ((frame = writeQueue.poll()) != null) {
+                frame.release();
+            }
+            writeView = null;
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
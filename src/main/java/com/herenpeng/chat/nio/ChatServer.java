@@ -1,5 +1,23 @@
 package com.herenpeng.chat.nio;
 
+import com.herenpeng.chat.common.ChatClock;
+import com.herenpeng.chat.common.ChatCommand;
+import com.herenpeng.chat.common.ChatConfig;
+import com.herenpeng.chat.common.ChatJournal;
+import com.herenpeng.chat.common.ChatLogger;
+import com.herenpeng.chat.common.ChatMessageFormat;
+import com.herenpeng.chat.common.ChatMetrics;
+import com.herenpeng.chat.common.ChatOutboundLimit;
+import com.herenpeng.chat.common.ChatPresence;
+import com.herenpeng.chat.common.ChatRobot;
+import com.herenpeng.chat.common.ChatRoomHistory;
+import com.herenpeng.chat.common.ChatRoomRegistry;
+import com.herenpeng.chat.common.ChatUserIndex;
+import com.herenpeng.chat.protocol.ChatCompression;
+import com.herenpeng.chat.protocol.ChatFrame;
+import com.herenpeng.chat.protocol.ChatFrameCodec;
+import com.herenpeng.chat.protocol.ChatFrameDecoder;
+
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
@@ -8,10 +26,21 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.text.SimpleDateFormat;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
 
 /**
  * 聊天室服务端，NIO 实现版本
@@ -21,6 +50,58 @@ import java.util.stream.Collectors;
  */
 public class ChatServer {
 
+    /**
+     * 工作反应器数量，默认为0，表示单反应器模式，接入和读写都在一个选择器线程上
+     * <p>大于0时为主从反应器模式：一个选择器只负责接入连接，再轮询分配给工作反应器负责读写</p>
+     */
+    private static final int WORKER_COUNT = Integer.getInteger("chat.reactor.workers", 0);
+
+    /**
+     * 写出模式：latency 有消息就立即写出（默认），throughput 在一轮选择结束时把每个连接积攒的消息一次写出
+     */
+    private static final boolean FLUSH_THROUGHPUT = "throughput".equals(System.getProperty("chat.flush.mode", "latency"));
+
+    /**
+     * throughput 模式下的攒批时间窗口，单位微秒，默认为0，表示在本轮选择结束时写出；
+     * 大于0时从第一条消息进入待写出列表开始，最多再等待这么久
+     */
+    private static final long FLUSH_WINDOW_NANOS = TimeUnit.MICROSECONDS.toNanos(Long.getLong("chat.flush.windowMicros", 0L));
+
+    /**
+     * 一次聚集写出的最大消息条数
+     */
+    private static final int MAX_GATHER_SIZE = 64;
+
+    /**
+     * 一次写出最多写出的文件数据块数量
+     */
+    private static final int MAX_FILE_CHUNKS_PER_FLUSH = 16;
+
+    /**
+     * 是否允许客户端开启压缩，通过 -Dchat.compress.enabled 修改
+     */
+    private static final boolean COMPRESS_ENABLED = Boolean.parseBoolean(System.getProperty("chat.compress.enabled", "true"));
+
+    /**
+     * 内容短于该字节数的消息不压缩，通过 -Dchat.compress.minSize 修改
+     */
+    private static final int COMPRESS_MIN_SIZE = Integer.getInteger("chat.compress.minSize", 32);
+
+    /**
+     * 工作反应器
+     */
+    private static ChatReactor[] workers;
+
+    /**
+     * TLS，没有开启时为null
+     */
+    private static ChatTls tls;
+
+    /**
+     * 下一个分配连接的工作反应器下标，只在接入线程中访问
+     */
+    private static int nextWorker;
+
     /**
      * 启动类
      *
@@ -28,47 +109,70 @@ public class ChatServer {
      * @throws IOException 抛出IO异常
      */
     public static void main(String[] args) throws IOException {
-        Selector selector = Selector.open();
-        ServerSocketChannel server = ServerSocketChannel.open();
-        server.socket().bind(new InetSocketAddress(12345));
-        server.configureBlocking(false);
-        server.register(selector, SelectionKey.OP_ACCEPT);
-
-        new Thread(() -> start(selector)).start();
-
         // 加载配置
         CHAT_CFG_RELOAD_PASSWORD = UUID.randomUUID().toString();
         logInfo("【系统消息】聊天室配置加载密钥：" + CHAT_CFG_RELOAD_PASSWORD);
         reloadChatCfg(null, args.length == 1 ? args[0] : null);
+        // 监听配置文件，文件修改后自动刷新配置
+        String chatCfgFile = System.getProperty("chat.config.file");
+        if (isNotEmpty(chatCfgFile)) {
+            ChatConfig.watch(Paths.get(chatCfgFile));
+        }
+        // 监控指标
+        ChatMetrics.registerGauge("buffer_pool_hits_total", bufferPool::getHitCount);
+        ChatMetrics.registerGauge("buffer_pool_misses_total", bufferPool::getMissCount);
+        ChatMetrics.registerGauge("robot_dropped_total", robotDroppedCount::sum);
+        ChatMetrics.start();
+        // 聊天记录日志
+        ChatJournal.start();
+        // 房间成员变化合并发送
+        presence.start();
+        fileSpool.start();
+        // 加密传输
+        if (ChatTls.ENABLED) {
+            tls = ChatTls.server();
+            tls.start();
+        }
+
+        ChatReactor boss = new ChatReactor("chat-boss");
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(12345));
+        server.configureBlocking(false);
+        server.register(boss.getSelector(), SelectionKey.OP_ACCEPT);
+
+        if (WORKER_COUNT > 0) {
+            workers = new ChatReactor[WORKER_COUNT];
+            for (int i = 0; i < WORKER_COUNT; i++) {
+                workers[i] = new ChatReactor("chat-worker-" + i);
+                workers[i].start();
+            }
+        } else {
+            workers = new ChatReactor[]{boss};
+        }
+        boss.start();
 
-        logInfo("【系统消息】聊天室启动成功了！");
+        logInfo("【系统消息】聊天室启动成功了！工作反应器数量：" + WORKER_COUNT + (tls == null ? "" : "，已开启 TLS"));
     }
 
     /**
-     * 服务开始方法
+     * 处理选择器通知的事件
      *
-     * @param selector 选择器
+     * @param key SelectionKey 对象
      */
-    private static void start(Selector selector) {
+    private static void handleKey(SelectionKey key) {
         try {
-            while (selector.select() > 0) {
-                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
-                while (iterator.hasNext()) {
-                    SelectionKey key = iterator.next();
-                    iterator.remove();
-                    if (key.isAcceptable()) {
-                        handleAccept(key);
-                    }
-                    if (key.isReadable()) {
-                        handleRead(key);
-                    }
-                }
+            if (key.isValid() && key.isAcceptable()) {
+                handleAccept(key);
+            }
+            if (key.isValid() && key.isReadable()) {
+                handleRead(key);
+            }
+            if (key.isValid() && key.isWritable()) {
+                handleWrite(key);
             }
         } catch (Exception e) {
             logInfo("【系统消息】聊天室发生了异常……");
             e.printStackTrace();
-        } finally {
-            logInfo("【系统消息】正在关闭聊天室资源……");
         }
     }
 
@@ -78,84 +182,190 @@ public class ChatServer {
     private static String CHAT_CFG_RELOAD_PASSWORD;
 
     /**
-     * 机器人是否开启的标识
+     * 读写使用的直接内存缓冲区池
      */
-    private static final String robotCfgKey = "robot";
+    private static final ByteBufferPool bufferPool = ByteBufferPool.DEFAULT;
+
     /**
-     * 机器人概率，值为5表示1/5的概率机器人回复
+     * 保存所有用户socket的集合
      */
-    private static final String robotProCfgKey = "robotPro";
+    private static final Map<SocketChannel, ChatUser> userDB = new ConcurrentHashMap<>();
 
-    private static final Map<String, String> chatCfg = new ConcurrentHashMap<>();
+    /**
+     * 房间成员，房间内的消息只发送给房间成员
+     */
+    private static final ChatRoomRegistry<SocketChannel> roomDB = new ChatRoomRegistry<>();
 
-    static {
-        // 是否开启机器人发送消息，默认不开启
-        chatCfg.put(robotCfgKey, "false");
-        chatCfg.put(robotProCfgKey, "5");
-    }
+    /**
+     * 房间最近的聊天记录，保存广播时编码好的消息帧的堆内存副本，长期保存的记录不占用缓冲区池中的缓冲区
+     */
+    private static final ChatRoomHistory<ByteBuffer> roomHistory = new ChatRoomHistory<>(ChatRoomHistory.CAPACITY,
+            roomDB::contains);
 
     /**
-     * 通过配置 key 获取布尔类型的值
-     *
-     * @param cfgKey 配置key
-     * @return 布尔类型的值
+     * 房间成员名单，进入房间的用户收到完整名单，其他用户只收到合并后的成员变化
      */
-    private static boolean getBolByChatCfg(String cfgKey) {
-        String cfgValue = chatCfg.get(cfgKey);
-        return "true".equals(cfgValue);
-    }
+    private static final ChatPresence presence = new ChatPresence(ChatServer::publishPresence);
 
     /**
-     * 通过配置 key 获取 int 类型的值
-     *
-     * @param cfgKey 配置key
-     * @return int 类型的值
+     * 用户分享的文件
      */
-    private static int getIntByChatCfg(String cfgKey) {
-        String cfgValue = chatCfg.get(cfgKey);
-        return isEmpty(cfgValue) ? 0 : Integer.parseInt(cfgValue);
-    }
+    private static final ChatFileSpool fileSpool = new ChatFileSpool();
 
+    /**
+     * 用户名索引，按用户名查找在线用户，保证用户名唯一
+     */
+    private static final ChatUserIndex<SocketChannel> userIndex = new ChatUserIndex<>();
 
     /**
-     * 保存所有用户socket的集合
+     * 连接 id 生成器
      */
-    private static final Map<SocketChannel, ChatUser> userDB = new ConcurrentHashMap<>();
+    private static final AtomicLong connectionId = new AtomicLong();
 
     /**
      * 聊天记录分隔符
      */
-    private static final String chatSeparate = "---------------------------";
+    private static final String chatSeparate = ChatMessageFormat.CHAT_SEPARATE;
 
     /**
-     * 给所有的用户发送系统消息
+     * 给房间内所有的用户发送系统消息
      *
-     * @param msg 系统消息
+     * @param room 房间名称
+     * @param msg  系统消息
      * @throws IOException 抛出异常
      */
-    private static void sendSysMsg(String msg) throws IOException {
-        for (SocketChannel socket : userDB.keySet()) {
-            String sysMsg = getCurrentTime() + "\n" + msg + "\n" + chatSeparate;
-            sendMsgToUser(socket, sysMsg);
-        }
+    private static void sendSysMsg(String room, String msg) throws IOException {
+        ChatJournal.append(ChatJournal.TYPE_SYSTEM, room, null, msg);
+        String sysMsg = ChatMessageFormat.formatSysMsg(msg);
+        broadcast(room, null, ChatBuffer.encodeText(bufferPool, sysMsg));
     }
 
     /**
-     * 发送消息给其他用户
+     * 发送消息给房间内的其他用户，并保存到房间的聊天记录中
      *
-     * @param username 消息发送用户名称
+     * @param room     房间名称
      * @param self     消息发送的用户socket
+     * @param username 消息发送用户名称
      * @param msg      消息
      * @throws IOException 抛出异常
      */
-    private static void sendMsgToOtherUser(SocketChannel self, String username, String msg) throws IOException {
-        for (SocketChannel socket : userDB.keySet()) {
-            if (socket.equals(self)) {
-                continue;
+    private static void sendMsgToOtherUser(String room, SocketChannel self, String username, String msg) throws IOException {
+        ChatJournal.append(ChatJournal.TYPE_CHAT, room, username, msg);
+        ChatBuffer frame = ChatBuffer.encodeText(bufferPool, ChatMessageFormat.formatChatMsg(username, msg));
+        // 保存和获取接收者是一个原子操作，和正在进入房间的用户不会漏发也不会重复
+        List<SocketChannel> members = roomHistory.record(room, frame.copy(), () -> roomDB.members(room));
+        broadcast(members, self, frame);
+    }
+
+    /**
+     * 在房间内广播一条已经编码好的消息，只遍历房间成员
+     * <p>消息只格式化、编码一次，每个接收者持有同一份数据的一个引用，写出时各自创建只读视图</p>
+     *
+     * @param room  房间名称
+     * @param self  消息发送的用户socket，不会收到这条消息，为null时发送给房间内所有用户
+     * @param frame 编码好的消息帧，广播完成后释放调用者持有的引用
+     * @throws IOException 抛出异常
+     */
+    private static void broadcast(String room, SocketChannel self, ChatBuffer frame) throws IOException {
+        broadcast(roomDB.members(room), self, frame);
+    }
+
+    /**
+     * 给房间成员快照广播一条已经编码好的消息
+     *
+     * @param members 房间成员快照
+     * @param self    消息发送的用户socket，不会收到这条消息，为null时发送给所有成员
+     * @param frame   编码好的消息帧，广播完成后释放调用者持有的引用
+     * @throws IOException 抛出异常
+     */
+    private static void broadcast(List<SocketChannel> members, SocketChannel self, ChatBuffer frame) throws IOException {
+        long start = System.nanoTime();
+        // 按压缩级别缓存压缩后的消息帧，同一级别的接收者共享一份
+        ChatBuffer[] compressed = null;
+        try {
+            for (SocketChannel socket : members) {
+                if (socket.equals(self)) {
+                    continue;
+                }
+                ChatUser chatUser = userDB.get(socket);
+                if (chatUser == null) {
+                    continue;
+                }
+                int level = chatUser.getCompressLevel();
+                if (level <= 0) {
+                    enqueue(socket, chatUser, frame.retain());
+                    continue;
+                }
+                if (compressed == null) {
+                    compressed = new ChatBuffer[Deflater.BEST_COMPRESSION + 1];
+                }
+                if (compressed[level] == null) {
+                    compressed[level] = compress(frame, level);
+                }
+                enqueue(socket, chatUser, compressed[level].retain());
+            }
+        } finally {
+            frame.release();
+            if (compressed != null) {
+                for (ChatBuffer buffer : compressed) {
+                    if (buffer != null) {
+                        buffer.release();
+                    }
+                }
             }
-            String sendMsg = "（" + username + "） " + getCurrentTime() + "\n" + msg + "\n" + chatSeparate;
-            sendMsgToUser(socket, sendMsg);
+            ChatMetrics.broadcast(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 按压缩级别压缩一帧文本消息，不会释放原消息帧
+     * <p>不是文本消息、消息太短或者压缩后没有变小时不压缩，返回原消息帧的一个新引用</p>
+     *
+     * @param frame 消息帧
+     * @param level 压缩级别
+     * @return 调用者持有一个引用的消息帧
+     */
+    private static ChatBuffer compress(ChatBuffer frame, int level) {
+        ByteBuffer view = frame.view();
+        if (frame.length() < ChatFrameCodec.HEADER_LENGTH + COMPRESS_MIN_SIZE
+                || view.get(view.position() + 4) != ChatFrameCodec.TYPE_TEXT) {
+            return frame.retain();
         }
+        view.position(view.position() + ChatFrameCodec.HEADER_LENGTH);
+        int length = view.remaining();
+        long start = System.nanoTime();
+        ByteBuffer deflated = ChatCompression.deflate(view, level, compressDictionary);
+        ChatMetrics.compressed(length, deflated == null ? length : deflated.remaining() - ChatFrameCodec.HEADER_LENGTH - 4,
+                System.nanoTime() - start);
+        return deflated == null ? frame.retain() : ChatBuffer.wrap(deflated);
+    }
+
+    /**
+     * 处理客户端登录前发送的连接设置，目前只有压缩设置，回复最终使用的设置和预置字典
+     * <p>登录之后不能再修改设置，收到的设置被拒绝，回复当前使用的设置，没有协商过压缩时就是不压缩，
+     * 客户端总能收到回复，知道协商的结果</p>
+     *
+     * @param socket   SocketChannel对象
+     * @param chatUser 用户
+     * @param settings 设置文本
+     * @throws IOException 抛出异常
+     */
+    private static void handleSettings(SocketChannel socket, ChatUser chatUser, String settings) throws IOException {
+        int level;
+        if (chatUser.getUsername() != null) {
+            // 只能在登录前协商
+            level = chatUser.getCompressLevel();
+        } else {
+            level = COMPRESS_ENABLED ? ChatCompression.parseLevel(settings) : 0;
+        }
+        byte[] ack = (ChatCompression.settings(level) + "\n").getBytes(StandardCharsets.UTF_8);
+        byte[] payload = level > 0 ? Arrays.copyOf(ack, ack.length + compressDictionary.length) : ack;
+        if (level > 0) {
+            System.arraycopy(compressDictionary, 0, payload, ack.length, compressDictionary.length);
+        }
+        // 先放入回复，之后的消息才会压缩，客户端收到回复之前不会收到压缩消息
+        sendMsgToUser(socket, ChatBuffer.wrap(ChatFrameCodec.encode(ChatFrameCodec.TYPE_SETTINGS, payload)));
+        chatUser.setCompressLevel(level);
     }
 
     /**
@@ -167,8 +377,7 @@ public class ChatServer {
      * @throws IOException 抛出异常
      */
     private static void sendMsgToUser(String username, SocketChannel socket, String msg) throws IOException {
-        String sendMsg = "（" + username + "） " + getCurrentTime() + "\n" + msg + "\n" + chatSeparate;
-        sendMsgToUser(socket, sendMsg);
+        sendMsgToUser(socket, ChatMessageFormat.formatChatMsg(username, msg));
     }
 
     /**
@@ -179,9 +388,335 @@ public class ChatServer {
      * @throws IOException 抛出异常
      */
     private static void sendMsgToUser(SocketChannel socket, String sendMsg) throws IOException {
-        ByteBuffer buffer = ByteBuffer.wrap(sendMsg.getBytes());
-        while (buffer.hasRemaining()) {
-            socket.write(buffer);
+        sendMsgToUser(socket, ChatBuffer.encodeText(bufferPool, sendMsg));
+    }
+
+    /**
+     * 给指定的用户发送系统消息，会自动在消息上下文拼接 消息发送时间，消息分隔符
+     *
+     * @param socket 用户socket
+     * @param msg    系统消息
+     * @throws IOException 抛出异常
+     */
+    private static void sendSysMsgToUser(SocketChannel socket, String msg) throws IOException {
+        sendMsgToUser(socket, ChatMessageFormat.formatSysMsg(msg));
+    }
+
+    /**
+     * 给指定的用户发送编码好的消息帧
+     * <p>消息先放入用户的发送队列，不会在选择器线程上自旋等待对端接收</p>
+     * <p>可以在任意反应器线程中调用，真正的写操作总是在用户所属的反应器线程中执行，
+     * 同一个发送者的消息按顺序进入接收者的队列，所以接收顺序和发送顺序一致</p>
+     * <p>队列积压超过{@link ChatOutboundLimit}的上限时，drop-new 策略在这里直接丢弃新消息，
+     * 其他策略在所属的反应器线程中处理，见{@link #checkOutboundLimit(SocketChannel, ChatUser)}</p>
+     *
+     * @param socket 消息发送的用户socket
+     * @param frame  消息帧，所有权转移给发送队列，写出完成后释放
+     * @throws IOException 抛出异常
+     */
+    private static void sendMsgToUser(SocketChannel socket, ChatBuffer frame) throws IOException {
+        ChatUser chatUser = userDB.get(socket);
+        if (chatUser == null) {
+            frame.release();
+            return;
+        }
+        enqueue(socket, chatUser, compressFor(chatUser, frame));
+    }
+
+    /**
+     * 按用户协商的压缩级别压缩消息帧
+     *
+     * @param chatUser 接收者
+     * @param frame    消息帧，所有权转移给返回值
+     * @return 调用者持有一个引用的消息帧，不需要压缩时就是原消息帧
+     */
+    private static ChatBuffer compressFor(ChatUser chatUser, ChatBuffer frame) {
+        if (chatUser.getCompressLevel() <= 0) {
+            return frame;
+        }
+        ChatBuffer compressed = compress(frame, chatUser.getCompressLevel());
+        frame.release();
+        return compressed;
+    }
+
+    /**
+     * 把消息帧放入用户的发送队列，并安排写出
+     *
+     * @param socket   用户socket
+     * @param chatUser 用户
+     * @param frame    消息帧，所有权转移给发送队列
+     * @throws IOException 抛出异常
+     */
+    private static void enqueue(SocketChannel socket, ChatUser chatUser, ChatBuffer frame) throws IOException {
+        if (offer(chatUser, frame)) {
+            requestFlush(socket, chatUser);
+        }
+    }
+
+    /**
+     * 只把消息帧放入用户的发送队列，不写出也不检查积压，可以在加入房间的锁内调用
+     *
+     * @param chatUser 用户
+     * @param frame    消息帧，所有权转移给发送队列
+     * @return 放入了发送队列返回true，被 drop-new 策略丢弃或者用户已经登出返回false
+     */
+    private static boolean offer(ChatUser chatUser, ChatBuffer frame) {
+        int length = frame.length();
+        if (ChatOutboundLimit.isDropNew() && ChatOutboundLimit.isExceeded(chatUser.getQueueSize().get() + 1,
+                chatUser.getQueueBytes().get() + length)) {
+            frame.release();
+            ChatMetrics.slowConsumerDropped();
+            return false;
+        }
+        chatUser.getWriteQueue().add(frame);
+        chatUser.getQueueBytes().addAndGet(length);
+        ChatMetrics.enqueued(chatUser.getQueueSize().incrementAndGet());
+        if (chatUser.isClosed()) {
+            // 其他反应器在登出之前拿到了用户，消息可能在登出归还发送队列之后才放入，由这里归还；
+            // 已经被登出归还的消息从队列中移除不了，不会重复释放
+            if (chatUser.getWriteQueue().remove(frame)) {
+                chatUser.getQueueSize().decrementAndGet();
+                chatUser.getQueueBytes().addAndGet(-length);
+                ChatMetrics.dequeued();
+                frame.release();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 安排写出发送队列：在用户所属的反应器线程中直接检查积压并写出，否则交给所属的反应器
+     *
+     * @param socket   用户socket
+     * @param chatUser 用户
+     * @throws IOException 抛出异常
+     */
+    private static void requestFlush(SocketChannel socket, ChatUser chatUser) throws IOException {
+        ChatReactor reactor = chatUser.getReactor();
+        if (reactor.inReactor()) {
+            if (checkOutboundLimit(socket, chatUser)) {
+                return;
+            }
+            scheduleFlush(socket, chatUser);
+        } else if (chatUser.getFlushScheduled().compareAndSet(false, true)) {
+            reactor.execute(() -> {
+                chatUser.getFlushScheduled().set(false);
+                try {
+                    if (checkOutboundLimit(socket, chatUser)) {
+                        return;
+                    }
+                    scheduleFlush(socket, chatUser);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+    }
+
+    /**
+     * 检查发送队列的积压，超过上限时按策略处理，只能在用户所属的反应器线程中调用
+     * <p>disconnect 策略登出该用户；drop-oldest 策略从队首开始丢弃消息，直到积压回到上限以内，
+     * 正在写出的队首消息不会被丢弃，否则对端会收到半帧</p>
+     *
+     * @param socket   用户socket
+     * @param chatUser 用户
+     * @return 用户被断开返回true，否则返回false
+     * @throws IOException 抛出异常
+     */
+    private static boolean checkOutboundLimit(SocketChannel socket, ChatUser chatUser) throws IOException {
+        if (!ChatOutboundLimit.isExceeded(chatUser.getQueueSize().get(), chatUser.getQueueBytes().get())) {
+            return false;
+        }
+        if (ChatOutboundLimit.isDisconnect()) {
+            logInfo("【系统消息】" + chatUser.getUsername() + "接收消息太慢，已断开连接，积压消息："
+                    + chatUser.getQueueSize().get() + "条，" + chatUser.getQueueBytes().get() + "字节");
+            ChatMetrics.slowConsumerEvicted();
+            logout(socket);
+            return true;
+        }
+        if (ChatOutboundLimit.isDropOldest()) {
+            Iterator<ChatBuffer> iterator = chatUser.getWriteQueue().iterator();
+            if (chatUser.getWriteView() != null && iterator.hasNext()) {
+                iterator.next();
+            }
+            while (iterator.hasNext()
+                    && ChatOutboundLimit.isExceeded(chatUser.getQueueSize().get(), chatUser.getQueueBytes().get())) {
+                ChatBuffer frame = iterator.next();
+                iterator.remove();
+                chatUser.getQueueSize().decrementAndGet();
+                chatUser.getQueueBytes().addAndGet(-frame.length());
+                ChatMetrics.dequeued();
+                ChatMetrics.slowConsumerDropped();
+                frame.release();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 尽可能多地写出发送队列中的消息，只能在用户所属的反应器线程中调用
+     * <p>队列中的多条消息收集到一个数组中，通过一次 {@link java.nio.channels.GatheringByteChannel#write(ByteBuffer[], int, int)}
+     * 写出，多条小消息只需要一次系统调用</p>
+     * <p>发送队列写空之后才开始下一个文件帧（包括文件描述帧），数据块之间可以插入聊天消息；一次最多写出
+     * {@link #MAX_FILE_CHUNKS_PER_FLUSH}个数据块，剩下的等待下一次可写，不会让一个大文件占住反应器线程</p>
+     * <p>写不完时注册 OP_WRITE，等待对端可写时由选择器继续写，队列写空后取消 OP_WRITE</p>
+     *
+     * @param socket   用户socket
+     * @param chatUser 用户
+     * @throws IOException 抛出异常
+     */
+    private static void flushMsg(SocketChannel socket, ChatUser chatUser) throws IOException {
+        Queue<ChatBuffer> writeQueue = chatUser.getWriteQueue();
+        Deque<ChatFileTransfer> transfers = chatUser.getTransfers();
+        SelectionKey key = chatUser.getKey();
+        if (!key.isValid()) {
+            return;
+        }
+        ChatTlsChannel tlsChannel = chatUser.getTls();
+        ByteBuffer[] views = chatUser.getReactor().getGatherViews();
+        int count = 0;
+        int chunks = 0;
+        try {
+            if (tlsChannel != null && !tlsChannel.isHandshakeComplete()) {
+                // 握手完成之前消息都留在发送队列中，这里只写出积压的握手消息
+                if (!tlsChannel.flush()) {
+                    writePending(chatUser, key);
+                    return;
+                }
+                if (chatUser.isWritePending()) {
+                    chatUser.setWritePending(false);
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                    resumeTls(socket);
+                }
+                return;
+            }
+            while (true) {
+                ChatFileTransfer transfer = transfers.peek();
+                // 正在写出的文件帧必须整帧写完，才能写出其他消息；文件帧只在发送队列写空时开始，
+                // 所以这时不会有写出了一半的消息
+                if (transfer != null && transfer.isInFrame()) {
+                    ChatMetrics.bytesOut(transfer.write(tlsChannel == null ? socket : tlsChannel));
+                    if (transfer.isInFrame()) {
+                        writePending(chatUser, key);
+                        return;
+                    }
+                    if (transfer.isDone()) {
+                        transfers.poll().close();
+                    }
+                    continue;
+                }
+                if (writeQueue.isEmpty()) {
+                    if (transfer == null) {
+                        // 最后一条 TLS 记录的密文可能还没有写完
+                        if (tlsChannel != null && !tlsChannel.flush()) {
+                            writePending(chatUser, key);
+                            return;
+                        }
+                        break;
+                    }
+                    if (chunks == MAX_FILE_CHUNKS_PER_FLUSH) {
+                        // 让出反应器线程，对端可写时继续
+                        writePending(chatUser, key);
+                        return;
+                    }
+                    if (transfer.nextChunk()) {
+                        chunks++;
+                    } else {
+                        transfers.poll().close();
+                    }
+                    continue;
+                }
+                // 队首消息可能已经写出了一部分，继续使用它的视图
+                Iterator<ChatBuffer> iterator = writeQueue.iterator();
+                while (count < views.length && iterator.hasNext()) {
+                    ChatBuffer frame = iterator.next();
+                    views[count] = count == 0 && chatUser.getWriteView() != null ? chatUser.getWriteView() : frame.view();
+                    count++;
+                }
+                ChatMetrics.bytesOut(tlsChannel == null ? socket.write(views, 0, count) : tlsChannel.write(views, 0, count));
+                // 前面的消息写完了才会写后面的消息，从队首开始回收写完的消息
+                int written = 0;
+                while (written < count && !views[written].hasRemaining()) {
+                    ChatBuffer frame = writeQueue.poll();
+                    chatUser.getQueueSize().decrementAndGet();
+                    chatUser.getQueueBytes().addAndGet(-frame.length());
+                    ChatMetrics.dequeued();
+                    ChatMetrics.messageOut();
+                    frame.release();
+                    written++;
+                }
+                chatUser.setWriteView(written < count ? views[written] : null);
+                Arrays.fill(views, 0, count, null);
+                count = 0;
+                if (chatUser.getWriteView() != null) {
+                    // 对端 TCP 窗口已满，等待可写
+                    writePending(chatUser, key);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            Arrays.fill(views, 0, count, null);
+            logout(socket);
+            return;
+        }
+        if (chatUser.isWritePending()) {
+            chatUser.setWritePending(false);
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+        if (chatUser.isCloseAfterFlush()) {
+            logout(socket);
+        }
+    }
+
+    /**
+     * 注册 OP_WRITE，等待对端可写时由选择器继续写
+     *
+     * @param chatUser 用户
+     * @param key      用户的 SelectionKey
+     */
+    private static void writePending(ChatUser chatUser, SelectionKey key) {
+        if (!chatUser.isWritePending()) {
+            chatUser.setWritePending(true);
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * 写出用户的发送队列：latency 模式立即写出，throughput 模式交给所属的反应器在本轮选择结束时统一写出，
+     * 积攒的消息已经够一次聚集写出时不再等待，避免一轮选择中积压太多消息；只能在用户所属的反应器线程中调用
+     *
+     * @param socket   用户socket
+     * @param chatUser 用户
+     * @throws IOException 抛出异常
+     */
+    private static void scheduleFlush(SocketChannel socket, ChatUser chatUser) throws IOException {
+        // 已经注册了 OP_WRITE，等待选择器通知即可
+        if (chatUser.isWritePending()) {
+            return;
+        }
+        if (FLUSH_THROUGHPUT && chatUser.getQueueSize().get() < MAX_GATHER_SIZE) {
+            chatUser.getReactor().deferFlush(chatUser);
+        } else {
+            flushMsg(socket, chatUser);
+        }
+    }
+
+    /**
+     * 发送队列写空之后再登出，保证最后一条消息能送达
+     *
+     * @param socket 用户socket
+     * @throws IOException 抛出异常
+     */
+    private static void logoutAfterFlush(SocketChannel socket) throws IOException {
+        ChatUser chatUser = userDB.get(socket);
+        if (chatUser == null) {
+            return;
+        }
+        if (chatUser.getWriteQueue().isEmpty()) {
+            logout(socket);
+        } else {
+            chatUser.setCloseAfterFlush(true);
         }
     }
 
@@ -198,6 +733,11 @@ public class ChatServer {
             }
             server.close();
             userDB.clear();
+            roomDB.clear();
+            roomHistory.clear();
+            presence.clear();
+            fileSpool.clear();
+            userIndex.clear();
         } catch (IOException e) {
             logInfo("【系统消息】关闭聊天室资源发生了异常……");
             e.printStackTrace();
@@ -205,7 +745,7 @@ public class ChatServer {
     }
 
     /**
-     * 链接客户端
+     * 链接客户端，在接入线程中执行，连接轮询分配给工作反应器
      *
      * @param key key
      * @throws IOException 抛出异常
@@ -213,78 +753,409 @@ public class ChatServer {
     private static void handleAccept(SelectionKey key) throws IOException {
         ServerSocketChannel server = (ServerSocketChannel) key.channel();
         SocketChannel socket = server.accept();
+        if (socket == null) {
+            return;
+        }
         socket.configureBlocking(false);
-        socket.register(key.selector(), SelectionKey.OP_READ);
 
-        userDB.put(socket, new ChatUser());
+        ChatReactor worker = workers[nextWorker];
+        nextWorker = (nextWorker + 1) % workers.length;
+        if (worker.inReactor()) {
+            register(worker, socket);
+        } else {
+            // 选择器的注册必须在它自己的线程中进行，否则会和阻塞中的 select 互相等待
+            worker.execute(() -> {
+                try {
+                    register(worker, socket);
+                } catch (IOException e) {
+                    logInfo("【系统消息】注册客户端连接发生了异常……");
+                    e.printStackTrace();
+                }
+            });
+        }
+    }
+
+    /**
+     * 将连接注册到工作反应器，并发送聊天室申明
+     *
+     * @param worker 工作反应器
+     * @param socket 用户socket
+     * @throws IOException 抛出异常
+     */
+    private static void register(ChatReactor worker, SocketChannel socket) throws IOException {
+        SelectionKey socketKey = socket.register(worker.getSelector(), SelectionKey.OP_READ);
+        // 握手的委托任务执行完成后，回到连接所属的反应器继续握手
+        ChatTlsChannel tlsChannel = tls == null ? null
+                : tls.accept(socket, () -> worker.execute(() -> resumeTls(socket)));
+
+        userDB.put(socket, new ChatUser(connectionId.incrementAndGet(), socketKey, worker, tlsChannel));
+        ChatMetrics.connectionOpened();
+        // 开启 TLS 时申明在握手完成后才会写出
         sendMsgToUser(socket, "============================\n" +
                 "1、本聊天室仅为娱乐，请勿在该聊天室内谈论敏感内容，比如涉政，涉黄，账号密码等等！\n" +
-                "2、聊天室内容明文传输，聊天信息泄露本聊天室概不负责！\n" +
-                "3、本聊天室内容后台不做任何存储，聊天信息如果需要请自行保留！\n" +
+                (tlsChannel == null ? "2、聊天室内容明文传输，聊天信息泄露本聊天室概不负责！\n"
+                        : "2、聊天室内容通过 TLS 加密传输，但服务端可以看到聊天内容，聊天信息泄露本聊天室概不负责！\n") +
+                "3、本聊天室后台只在内存中保留每个房间最近的聊天记录，默认不做持久化存储，聊天信息如果需要请自行保留！\n" +
                 "4、最终解释权归本聊天室所有！\n" +
                 "============================");
     }
 
     /**
-     * 读取消息
+     * 读取消息，一次读取可能包含多条消息，也可能只有半条消息
      *
      * @param key SelectionKey 对象
-     * @return 消息
+     * @return 本次读取到的完整消息帧
      * @throws IOException
      */
-    private static String readMsg(SelectionKey key) throws IOException {
+    private static List<ChatFrame> readMsg(SelectionKey key) throws IOException {
         SocketChannel socket = (SocketChannel) key.channel();
-        StringBuilder msg = new StringBuilder();
+        List<ChatFrame> frames = new ArrayList<>();
+        ChatUser chatUser = userDB.get(socket);
+        if (chatUser == null) {
+            return frames;
+        }
+        ChatTlsChannel tlsChannel = chatUser.getTls();
         try {
-            ByteBuffer buffer = ByteBuffer.allocate(1024);
+            ByteBuffer buffer = bufferPool.acquire();
             int len;
-            while ((len = socket.read(buffer)) > 0) {
-                buffer.flip();
-                msg.append(new String(buffer.array(), buffer.position(), buffer.limit()));
-                buffer.clear();
+            long bytes = 0;
+            try {
+                while ((len = tlsChannel == null ? socket.read(buffer) : tlsChannel.read(buffer)) > 0) {
+                    bytes += len;
+                    buffer.flip();
+                    chatUser.getDecoder().decode(buffer, frames);
+                    buffer.clear();
+                }
+            } finally {
+                bufferPool.release(buffer);
             }
+            ChatMetrics.messagesIn(frames.size(), bytes);
             if (len == -1) {
                 logout(socket);
+            } else if (tlsChannel != null) {
+                if (tlsChannel.hasPendingOutput()) {
+                    // 握手消息没有写完，等待可写
+                    writePending(chatUser, key);
+                } else if (tlsChannel.isHandshakeComplete() && !chatUser.getWriteQueue().isEmpty()) {
+                    // 握手完成，写出握手期间积压的消息
+                    scheduleFlush(socket, chatUser);
+                }
             }
         } catch (Exception e) {
             logout(socket);
         }
-        return msg.toString();
+        return frames;
     }
 
 
     /**
-     * 用户开始聊天方法
+     * 对端可写，继续写出积压的消息
      *
      * @param key SelectionKey 对象
+     * @throws IOException 抛出异常
      */
-    private static void handleRead(SelectionKey key) throws IOException {
+    private static void handleWrite(SelectionKey key) throws IOException {
         SocketChannel socket = (SocketChannel) key.channel();
-        String chatMsg = readMsg(key);
         ChatUser chatUser = userDB.get(socket);
         if (chatUser == null) {
             return;
         }
+        flushMsg(socket, chatUser);
+    }
+
+    /**
+     * 继续 TLS 握手：握手的委托任务执行完成，或者积压的握手消息写完之后调用，只能在用户所属的反应器线程中调用
+     * <p>对端的握手消息可能已经读到了缓冲区中，不会再有可读事件，所以按一次可读事件处理</p>
+     *
+     * @param socket 用户socket
+     */
+    private static void resumeTls(SocketChannel socket) {
+        ChatUser chatUser = userDB.get(socket);
+        if (chatUser == null) {
+            return;
+        }
+        try {
+            handleRead(chatUser.getKey());
+        } catch (IOException e) {
+            logInfo("【系统消息】TLS 握手发生了异常……");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 用户开始聊天方法
+     *
+     * @param key SelectionKey 对象
+     */
+    private static void handleRead(SelectionKey key) throws IOException {
+        SocketChannel socket = (SocketChannel) key.channel();
+        for (ChatFrame frame : readMsg(key)) {
+            ChatUser chatUser = userDB.get(socket);
+            if (chatUser == null) {
+                return;
+            }
+            if (frame.getType() == ChatFrameCodec.TYPE_TEXT) {
+                handleMsg(socket, chatUser, frame.getText());
+            } else if (frame.getType() == ChatFrameCodec.TYPE_FILE_OFFER || frame.getType() == ChatFrameCodec.TYPE_FILE_CHUNK) {
+                handleFileFrame(socket, chatUser, frame);
+            } else if (frame.getType() == ChatFrameCodec.TYPE_SETTINGS) {
+                handleSettings(socket, chatUser, frame.getText());
+            }
+        }
+    }
+
+    /**
+     * 处理文件上传的帧：文件描述帧开始一次上传，数据块追加写入暂存文件，全部上传完成后通知房间内的用户
+     * <p>每个连接同一时间只有一个上传，新的文件描述帧会放弃还没有完成的上传</p>
+     *
+     * @param socket   SocketChannel对象
+     * @param chatUser 上传文件的用户
+     * @param frame    文件描述帧或者数据块
+     * @throws IOException 抛出异常
+     */
+    private static void handleFileFrame(SocketChannel socket, ChatUser chatUser, ChatFrame frame) throws IOException {
+        String room = chatUser.getRoom();
+        if (room == null) {
+            // 没有登录
+            return;
+        }
+        ChatFileSpool.Upload upload = chatUser.getUpload();
+        if (frame.getType() == ChatFrameCodec.TYPE_FILE_OFFER) {
+            if (upload != null) {
+                fileSpool.abort(upload);
+                chatUser.setUpload(null);
+            }
+            String[] offer = frame.getText().split("\n", 2);
+            try {
+                upload = fileSpool.begin(room, chatUser.getUsername(), offer.length < 2 ? null : offer[1], Long.parseLong(offer[0]));
+            } catch (IOException | NumberFormatException e) {
+                sendSysMsgToUser(socket, "【系统消息】文件上传失败：" + e.getMessage());
+                return;
+            }
+            chatUser.setUpload(upload);
+        } else {
+            if (upload == null) {
+                // 上传已经失败，丢弃剩下的数据块
+                return;
+            }
+            try {
+                upload.write(ByteBuffer.wrap(frame.getPayload()));
+            } catch (IOException e) {
+                fileSpool.abort(upload);
+                chatUser.setUpload(null);
+                sendSysMsgToUser(socket, "【系统消息】文件上传失败：" + e.getMessage());
+                return;
+            }
+        }
+        if (!upload.isComplete()) {
+            return;
+        }
+        chatUser.setUpload(null);
+        ChatFileSpool.SpooledFile file = fileSpool.complete(upload);
+        String msg = "【系统消息】" + file.getUsername() + "分享了文件：" + file.getName() + "（" + file.getSize()
+                + "字节），输入 " + ChatCommand.GET + " " + file.getId() + " 下载";
+        logInfo(msg);
+        sendSysMsg(file.getRoom(), msg);
+    }
+
+    /**
+     * 下载房间内分享的文件，文件加入用户的下载队列，在发送队列写空之后按数据块写出
+     *
+     * @param socket   SocketChannel对象
+     * @param chatUser 下载文件的用户
+     * @param argument 文件 id
+     * @throws IOException 抛出异常
+     */
+    private static void sendFile(SocketChannel socket, ChatUser chatUser, String argument) throws IOException {
+        ChatFileSpool.SpooledFile file = null;
+        try {
+            file = fileSpool.get(Long.parseLong(argument));
+        } catch (NumberFormatException ignored) {
+        }
+        if (file == null || !file.getRoom().equals(chatUser.getRoom())) {
+            sendSysMsgToUser(socket, "【系统消息】文件不存在：" + argument);
+            return;
+        }
+        ChatFileTransfer transfer;
+        try {
+            transfer = fileSpool.open(file);
+        } catch (IOException e) {
+            sendSysMsgToUser(socket, "【系统消息】文件已被删除：" + argument);
+            return;
+        }
+        chatUser.getTransfers().add(transfer);
+        if (!chatUser.isWritePending()) {
+            flushMsg(socket, chatUser);
+        }
+    }
+
+    /**
+     * 处理一条完整的消息
+     *
+     * @param socket   SocketChannel对象
+     * @param chatUser 发送消息的用户
+     * @param chatMsg  消息
+     * @throws IOException 抛出异常
+     */
+    private static void handleMsg(SocketChannel socket, ChatUser chatUser, String chatMsg) throws IOException {
         // 如果用户名为空，说明没有登录
         if (isEmpty(chatUser.getUsername())) {
-            chatUser.setUsername(chatMsg);
-            if (CHAT_CFG_RELOAD_PASSWORD.equals(chatUser.getUsername())) {
+            if (CHAT_CFG_RELOAD_PASSWORD.equals(chatMsg)) {
+                chatUser.setUsername(chatMsg);
                 sendMsgToUser(socket, "【系统消息】请输入需要刷新的聊天室配置");
-            } else {
-                loginTip(socket, chatMsg);
-                // 机器人欢迎
-                robotWelcome(chatMsg);
+                return;
             }
+            // 用户名不合法或者已被占用时不登录，下一条消息继续作为用户名
+            if (!ChatUserIndex.isValidName(chatMsg)) {
+                sendSysMsgToUser(socket, "【系统消息】昵称不能包含空白字符，不能以/开头，最长"
+                        + ChatUserIndex.MAX_USERNAME_LENGTH + "个字符，请重新输入");
+                return;
+            }
+            if (!userIndex.register(chatMsg, socket)) {
+                sendSysMsgToUser(socket, "【系统消息】昵称" + chatMsg + "已被使用，请重新输入");
+                return;
+            }
+            chatUser.setUsername(chatMsg);
+            // 登录后进入默认房间
+            joinRoom(socket, chatUser, ChatRoomRegistry.DEFAULT_ROOM, loginTip(socket, chatMsg));
+            // 机器人欢迎
+            submitRobotTask(() -> robotWelcome(ChatRoomRegistry.DEFAULT_ROOM, chatMsg));
         } else {
             if (CHAT_CFG_RELOAD_PASSWORD.equals(chatUser.getUsername())) {
                 // 刷新配置
                 reloadChatCfg(socket, chatMsg);
-            } else {
-                sendMsgToOtherUser(socket, chatUser.getUsername(), chatMsg);
-                // 机器人回复消息
-                randomRobotReply(chatMsg);
+                return;
             }
+            ChatCommand command = ChatCommand.parse(chatMsg);
+            if (command != null) {
+                handleCommand(socket, chatUser, command);
+                return;
+            }
+            String room = chatUser.getRoom();
+            sendMsgToOtherUser(room, socket, chatUser.getUsername(), chatMsg);
+            // 机器人回复消息
+            submitRobotTask(() -> randomRobotReply(room, chatMsg));
+        }
+    }
+
+    /**
+     * 处理聊天室命令
+     *
+     * @param socket   SocketChannel对象
+     * @param chatUser 发送命令的用户
+     * @param command  命令
+     * @throws IOException 抛出异常
+     */
+    private static void handleCommand(SocketChannel socket, ChatUser chatUser, ChatCommand command) throws IOException {
+        if (ChatCommand.MSG.equals(command.getName())) {
+            sendPrivateMsg(socket, chatUser, command.getTarget(), command.getText());
+            return;
+        }
+        if (ChatCommand.GET.equals(command.getName())) {
+            sendFile(socket, chatUser, command.getArgument());
+            return;
+        }
+        String room;
+        if (ChatCommand.JOIN.equals(command.getName())) {
+            room = command.getArgument();
+            if (!ChatRoomRegistry.isValidName(room)) {
+                sendSysMsgToUser(socket, "【系统消息】房间名称不能为空，不能包含空白字符，最长"
+                        + ChatRoomRegistry.MAX_ROOM_NAME_LENGTH + "个字符");
+                return;
+            }
+        } else {
+            room = ChatRoomRegistry.DEFAULT_ROOM;
+        }
+        if (room.equals(chatUser.getRoom())) {
+            sendSysMsgToUser(socket, "【系统消息】你已经在房间：" + room);
+            return;
+        }
+        leaveRoom(chatUser);
+        joinRoom(socket, chatUser, room, "【系统消息】" + chatUser.getUsername() + "已加入房间：" + room);
+    }
+
+    /**
+     * 给进入房间的用户重放房间最近的聊天记录，直接发送保存的消息帧，不需要重新格式化和编码
+     * <p>在加入房间的锁内调用，只放入发送队列，由调用者在锁外安排写出</p>
+     *
+     * @param chatUser 进入房间的用户
+     * @param frames   聊天记录快照
+     */
+    private static void replayHistory(ChatUser chatUser, List<ByteBuffer> frames) {
+        if (frames.isEmpty()) {
+            return;
+        }
+        String tip = ChatMessageFormat.formatSysMsg("【系统消息】房间最近的" + frames.size() + "条聊天记录：");
+        offer(chatUser, compressFor(chatUser, ChatBuffer.encodeText(bufferPool, tip)));
+        for (ByteBuffer frame : frames) {
+            offer(chatUser, compressFor(chatUser, ChatBuffer.wrap(frame)));
+        }
+    }
+
+    /**
+     * 发送私信，通过用户名索引直接找到接收者，不需要遍历在线用户
+     *
+     * @param self     发送私信的用户socket
+     * @param chatUser 发送私信的用户
+     * @param target   接收者用户名
+     * @param msg      私信
+     * @throws IOException 抛出异常
+     */
+    private static void sendPrivateMsg(SocketChannel self, ChatUser chatUser, String target, String msg) throws IOException {
+        if (isEmpty(target) || isEmpty(msg)) {
+            sendSysMsgToUser(self, "【系统消息】私信格式：/msg 用户名 消息");
+            return;
+        }
+        SocketChannel socket = userIndex.get(target);
+        if (socket == null) {
+            sendSysMsgToUser(self, "【系统消息】用户" + target + "不在线");
+            return;
+        }
+        if (socket.equals(self)) {
+            sendSysMsgToUser(self, "【系统消息】不能给自己发私信");
+            return;
+        }
+        ChatJournal.append(ChatJournal.TYPE_PRIVATE, target, chatUser.getUsername(), msg);
+        sendMsgToUser(socket, ChatMessageFormat.formatPrivateMsg(chatUser.getUsername(), msg));
+    }
+
+    /**
+     * 进入房间，给用户发送提示、成员名单和房间最近的聊天记录，只能在用户所属的反应器线程中调用
+     * <p>获取聊天记录快照、放入发送队列和加入房间成员在房间的记录上原子执行，同时保存的消息要么在快照中，
+     * 要么实时收到，不会丢失也不会重复，实时收到的消息都排在重放的聊天记录后面</p>
+     *
+     * @param socket   SocketChannel对象
+     * @param chatUser 用户
+     * @param room     房间名称
+     * @param msg      提示消息
+     * @throws IOException 抛出异常
+     */
+    private static void joinRoom(SocketChannel socket, ChatUser chatUser, String room, String msg) throws IOException {
+        chatUser.setRoom(room);
+        presence.join(room, chatUser.getId(), chatUser.getUsername());
+        roomTip(socket, room, msg);
+        roomHistory.join(room, history -> {
+            replayHistory(chatUser, history);
+            roomDB.join(room, chatUser.getId(), socket);
+        });
+        requestFlush(socket, chatUser);
+    }
+
+    /**
+     * 离开当前房间，房间内的其他用户会收到成员变化
+     *
+     * @param chatUser 用户
+     */
+    private static void leaveRoom(ChatUser chatUser) {
+        String room = chatUser.getRoom();
+        if (room == null) {
+            return;
+        }
+        if (roomDB.leave(room, chatUser.getId())) {
+            roomHistory.remove(room);
         }
+        chatUser.setRoom(null);
+        presence.leave(room, chatUser.getId());
     }
 
     /**
@@ -294,12 +1165,45 @@ public class ChatServer {
      */
     private static void logout(SocketChannel socket) throws IOException {
         ChatUser chatUser = userDB.remove(socket);
+        if (chatUser != null && chatUser.getTls() != null) {
+            // 发送 close_notify 并归还加解密缓冲区
+            chatUser.getTls().close();
+        }
         socket.close();
+        if (chatUser == null) {
+            // 已经登出过了
+            return;
+        }
+        ChatMetrics.connectionClosed();
+        // 先标记关闭再归还发送队列，之后放入的消息由放入方归还
+        chatUser.setClosed(true);
+        // 归还发送队列中还没有写出的消息
+        ChatBuffer frame;
+        while ((frame = chatUser.getWriteQueue().poll()) != null) {
+            chatUser.getQueueSize().decrementAndGet();
+            chatUser.getQueueBytes().addAndGet(-frame.length());
+            ChatMetrics.dequeued();
+            frame.release();
+        }
+        chatUser.setWriteView(null);
+        // 关闭还没有完成的文件上传和下载
+        if (chatUser.getUpload() != null) {
+            fileSpool.abort(chatUser.getUpload());
+            chatUser.setUpload(null);
+        }
+        ChatFileTransfer transfer;
+        while ((transfer = chatUser.getTransfers().poll()) != null) {
+            transfer.close();
+        }
+        String room = chatUser.getRoom();
+        if (roomDB.leave(room, chatUser.getId())) {
+            roomHistory.remove(room);
+        }
+        presence.leave(room, chatUser.getId());
         String username = chatUser.getUsername();
-        if (isNotEmpty(username) && !CHAT_CFG_RELOAD_PASSWORD.equals(username)) {
-            String msg = "【系统消息】" + username + "已退出聊天室";
-            logInfo(msg);
-            sendSysMsg(msg);
+        userIndex.unregister(username, socket);
+        if (room != null) {
+            logInfo("【系统消息】" + username + "已退出聊天室");
         }
     }
 
@@ -314,21 +1218,11 @@ public class ChatServer {
         if (isEmpty(chatCfgStr)) {
             return;
         }
-        String[] cfgList = chatCfgStr.split("&");
-        for (String cfgStr : cfgList) {
-            String[] cfg = cfgStr.split("=");
-            if (cfg.length != 2) {
-                continue;
-            }
-            String key = cfg[0];
-            if (chatCfg.containsKey(key)) {
-                chatCfg.put(key, cfg[1]);
-            }
-        }
+        ChatConfig config = ChatConfig.update(ChatConfig.parse(chatCfgStr));
         // 刷新完配置发送通知
         StringBuilder sb = new StringBuilder();
         sb.append("【系统消息】聊天室配置已刷新\n");
-        for (Map.Entry<String, String> entry : chatCfg.entrySet()) {
+        for (Map.Entry<String, String> entry : config.toMap().entrySet()) {
             sb.append("配置").append(entry.getKey()).append("当前值为：").append(entry.getValue()).append("\n");
         }
         sb.append(chatSeparate);
@@ -336,39 +1230,59 @@ public class ChatServer {
         if (self != null) {
             sendMsgToUser(self, sb.toString());
             // 登出
-            logout(self);
+            logoutAfterFlush(self);
         }
     }
 
 
     /**
-     * 用户登录时，发送系统提示
+     * 用户登录时的系统提示，同时记录日志
      *
+     * @param socket   SocketChannel对象
      * @param username 用户名
+     * @return 系统提示
      * @throws IOException 抛出异常
      */
-    private static void loginTip(SocketChannel socket, String username) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        sb.append("【系统消息】").append(username).append("已加入聊天室\n");
-        logInfo(sb + "远端主机地址：" + socket.getRemoteAddress());
-        sb.append("当前聊天室成员有：\n");
-        List<String> usernameList = getLoginUsernames();
-        for (int i = 0; i < usernameList.size(); i++) {
-            sb.append(i + 1).append("、").append(usernameList.get(i));
-            if (i < usernameList.size() - 1) {
-                sb.append("\n");
-            }
+    private static String loginTip(SocketChannel socket, String username) throws IOException {
+        String msg = "【系统消息】" + username + "已加入聊天室";
+        logInfo(msg + "\n远端主机地址：" + socket.getRemoteAddress());
+        return msg;
+    }
+
+    /**
+     * 用户进入房间时，给该用户发送系统提示和完整的房间成员名单
+     * <p>房间内的其他用户只收到合并后的成员变化，见{@link ChatPresence}</p>
+     *
+     * @param socket 进入房间的用户socket
+     * @param room   房间名称
+     * @param msg    提示消息
+     * @throws IOException 抛出异常
+     */
+    private static void roomTip(SocketChannel socket, String room, String msg) throws IOException {
+        sendSysMsgToUser(socket, msg + "\n" + presence.roster(room));
+    }
+
+    /**
+     * 给房间内所有用户发送成员变化
+     *
+     * @param room 房间名称
+     * @param msg  成员变化
+     */
+    private static void publishPresence(String room, String msg) {
+        try {
+            sendSysMsg(room, msg);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-        sendSysMsg(sb.toString());
     }
 
     /**
-     * 打印日志
+     * 打印日志，异步写出，不会阻塞调用线程
      *
      * @param message 日志信息
      */
     private static void logInfo(String message) {
-        System.out.println(getCurrentDateTime() + " " + message);
+        ChatLogger.log(message);
     }
 
     /**
@@ -432,31 +1346,108 @@ public class ChatServer {
     /**
      * 机器人列表
      */
-    private static final List<Robot> robotList = new ArrayList<>();
+    private static final List<ChatRobot> robotList = new ArrayList<>();
 
     static {
-        Robot robot1 = new Robot("机器人·风", replyMsgList, nightReplyMsgList, keyWordReplyMsgMap);
+        ChatRobot robot1 = new ChatRobot("机器人·风", replyMsgList, nightReplyMsgList, keyWordReplyMsgMap);
         robotList.add(robot1);
 
-        Robot robot2 = new Robot("机器人·雪", replyMsgList, nightReplyMsgList, keyWordReplyMsgMap);
+        ChatRobot robot2 = new ChatRobot("机器人·雪", replyMsgList, nightReplyMsgList, keyWordReplyMsgMap);
         robotList.add(robot2);
 
-        Robot robot3 = new Robot("机器人·雪", replyMsgList, nightReplyMsgList, keyWordReplyMsgMap);
+        ChatRobot robot3 = new ChatRobot("机器人·雪", replyMsgList, nightReplyMsgList, keyWordReplyMsgMap);
         robotList.add(robot3);
 
-        Robot robot4 = new Robot("机器人·月", replyMsgList, nightReplyMsgList, keyWordReplyMsgMap);
+        ChatRobot robot4 = new ChatRobot("机器人·月", replyMsgList, nightReplyMsgList, keyWordReplyMsgMap);
         robotList.add(robot4);
 
-        Robot robot5 = new Robot("机器人·马云", replyMsgList, null, keyWordReplyMsgMap);
+        ChatRobot robot5 = new ChatRobot("机器人·马云", replyMsgList, null, keyWordReplyMsgMap);
         robotList.add(robot5);
     }
 
+    /**
+     * 压缩的预置字典，由服务端自己的固定文本构建，协商压缩时发给客户端
+     */
+    private static final byte[] compressDictionary = buildCompressDictionary();
+
+    /**
+     * 构建压缩的预置字典：机器人语录在前，每条消息都有的分隔符、时间和系统消息前缀在后
+     *
+     * @return 预置字典
+     */
+    private static byte[] buildCompressDictionary() {
+        List<String> fragments = new ArrayList<>();
+        for (List<String> replies : keyWordReplyMsgMap.values()) {
+            fragments.addAll(replies);
+        }
+        fragments.addAll(nightReplyMsgList);
+        fragments.addAll(replyMsgList);
+        for (ChatRobot robot : robotList) {
+            fragments.add(ChatMessageFormat.formatChatMsg(robot.getUsername(), ""));
+        }
+        fragments.add("已加入，当前房间共人\n已离开房间成员有：\n1、2、3、分享了文件：字节），输入 /get 下载");
+        fragments.add(ChatMessageFormat.formatSysMsg("【系统消息】"));
+        fragments.add(ChatMessageFormat.formatChatMsg("", ""));
+        return ChatCompression.buildDictionary(fragments);
+    }
+
+    /**
+     * 机器人任务队列的大小，队列满时丢弃新的机器人任务，可以通过 -Dchat.robot.queueSize 修改
+     */
+    private static final int ROBOT_QUEUE_SIZE = Integer.getInteger("chat.robot.queueSize", 1024);
+
+    /**
+     * 丢弃的机器人任务数量
+     */
+    private static final LongAdder robotDroppedCount = new LongAdder();
+
+    /**
+     * 机器人线程，关键字匹配、随机回复和机器人消息的广播都在这个线程中执行，不占用反应器线程
+     * <p>队列有界，机器人处理不过来时丢弃机器人任务，不会积压内存，也不会反过来阻塞反应器</p>
+     */
+    private static final ExecutorService robotExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(ROBOT_QUEUE_SIZE), task -> {
+        Thread thread = new Thread(task, "chat-robot");
+        thread.setDaemon(true);
+        return thread;
+    }, (task, executor) -> {
+        robotDroppedCount.increment();
+        throw new RejectedExecutionException();
+    });
+
+    /**
+     * 提交机器人任务，机器人没有开启时不提交
+     *
+     * @param task 机器人任务
+     */
+    private static void submitRobotTask(RobotTask task) {
+        if (!ChatConfig.current().isRobot()) {
+            return;
+        }
+        try {
+            robotExecutor.execute(() -> {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    logInfo("【系统消息】机器人发生了异常……");
+                    e.printStackTrace();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            long dropped = robotDroppedCount.sum();
+            // 只记录第一次和之后每 1000 次，避免队列满时日志刷屏
+            if (dropped == 1 || dropped % 1000 == 0) {
+                logInfo("【系统消息】机器人任务队列已满，累计丢弃机器人任务：" + dropped + "个");
+            }
+        }
+    }
+
     /**
      * 随机选择一个机器人
      *
      * @return 机器人
      */
-    private static Robot randomRobot() {
+    private static ChatRobot randomRobot() {
         int i = random.nextInt(robotList.size());
         return robotList.get(i);
     }
@@ -464,11 +1455,12 @@ public class ChatServer {
     /**
      * 机器人欢迎语
      *
+     * @param room     用户进入的房间
      * @param username 登入的用户
      * @throws IOException 抛出异常
      */
-    private static void robotWelcome(String username) throws IOException {
-        if (!getBolByChatCfg(robotCfgKey)) {
+    private static void robotWelcome(String room, String username) throws IOException {
+        if (!ChatConfig.current().isRobot()) {
             return;
         }
         String welcomeMsg;
@@ -483,26 +1475,27 @@ public class ChatServer {
         } else {
             welcomeMsg = "欢迎" + username + "进入聊天室";
         }
-        sendMsgToOtherUser(null, randomRobot().getUsername(), welcomeMsg);
+        sendMsgToOtherUser(room, null, randomRobot().getUsername(), welcomeMsg);
     }
 
 
     /**
      * 随机机器人回复消息
      *
-     * @param msg 用户发的消息
+     * @param room 消息所在的房间
+     * @param msg  用户发的消息
      */
-    private static void randomRobotReply(String msg) throws IOException {
-        if (!getBolByChatCfg(robotCfgKey)) {
+    private static void randomRobotReply(String room, String msg) throws IOException {
+        if (!ChatConfig.current().isRobot()) {
             return;
         }
-        Robot robot = randomRobot();
+        ChatRobot robot = randomRobot();
         // 随机一条关键字消息回复，如果回复了关键字，就不回复其他消息
         String sendMsg = robot.randomKeyWordReplyMsg(msg);
-        // 获取概率，因为默认值为0，所以需要进行一下判断
-        int robotProCfgValue = getIntByChatCfg(robotProCfgKey);
+        // 获取概率，配置为小于等于0时只回复关键字，random.nextInt 也不接受0
+        int robotProCfgValue = ChatConfig.current().getRobotPro();
         if (isEmpty(sendMsg) && robotProCfgValue > 0) {
-            // 五分之一的概率会回复消息
+            // 按配置的概率回复消息，默认五分之一
             int i = random.nextInt(robotProCfgValue);
             if (i == 0) {
                 if (isNight()) {
@@ -513,19 +1506,10 @@ public class ChatServer {
             }
         }
         if (sendMsg != null) {
-            sendMsgToOtherUser(null, robot.getUsername(), sendMsg);
+            sendMsgToOtherUser(room, null, robot.getUsername(), sendMsg);
         }
     }
 
-    /**
-     * 获取当前在线的所有玩家名称
-     *
-     * @return 当前在线的所有玩家名称
-     */
-    private static List<String> getLoginUsernames() {
-        return userDB.values().stream().map(ChatUser::getUsername).filter(Objects::nonNull).collect(Collectors.toList());
-    }
-
 
     /**
      * 判断时间是否是 11:00 - 04:59 晚上
@@ -533,35 +1517,10 @@ public class ChatServer {
      * @return 是返回true，否则返回false
      */
     private static boolean isNight() {
-        Calendar calendar = Calendar.getInstance();
-        int hour = calendar.get(Calendar.HOUR_OF_DAY);
+        int hour = ChatClock.getHour();
         return hour >= 23 || hour <= 4;
     }
 
-    /**
-     * 时间格式化对象
-     */
-    private static final SimpleDateFormat timeSdf = new SimpleDateFormat("HH:mm:ss");
-    private static final SimpleDateFormat DateTimeSdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-
-    /**
-     * 获取当前的时间的格式化字符串
-     *
-     * @return 当前的时间的格式化字符串
-     */
-    private static synchronized String getCurrentTime() {
-        return timeSdf.format(new Date());
-    }
-
-    /**
-     * 获取当前的日期时间的格式化字符串
-     *
-     * @return 当前的日期时间的格式化字符串
-     */
-    private static synchronized String getCurrentDateTime() {
-        return DateTimeSdf.format(new Date());
-    }
-
     /**
      * 判断一个字符串是否为空
      *
@@ -583,90 +1542,394 @@ public class ChatServer {
     }
 
     /**
-     * 机器人对象
+     * 机器人任务
      */
-    private static class Robot {
-        // 机器人名称
-        private final String username;
-        // 机器人随机回复
-        private final List<String> replyMsgList;
-        // 机器人晚上回复
-        private final List<String> nightReplyMsgList;
-        // 机器人关键字回复
-        private final Map<String, List<String>> keyWordReplyMsgMap;
+    @FunctionalInterface
+    private interface RobotTask {
 
-        public Robot(String username, List<String> replyMsgList, List<String> nightReplyMsgList, Map<String, List<String>> keyWordReplyMsgMap) {
-            this.username = username;
-            this.replyMsgList = replyMsgList;
-            this.nightReplyMsgList = nightReplyMsgList;
-            this.keyWordReplyMsgMap = keyWordReplyMsgMap;
+        void run() throws IOException;
+    }
+
+    /**
+     * 封装的 ChatUser
+     */
+    private static class ChatUser {
+
+        /**
+         * 连接 id，房间成员按连接 id 保存
+         */
+        private final long id;
+
+        private final SelectionKey key;
+
+        /**
+         * 连接所属的反应器，连接的读写都在这个反应器线程中进行
+         */
+        private final ChatReactor reactor;
+
+        private volatile String username;
+
+        /**
+         * 当前所在的房间，只在所属的反应器线程中修改
+         */
+        private volatile String room;
+
+        /**
+         * 待发送的消息队列，任意反应器线程都可以放入消息，只有所属的反应器线程写出
+         */
+        private final Queue<ChatBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+
+        /**
+         * 发送队列中的消息数量，ConcurrentLinkedQueue 的 size 需要遍历队列，所以单独计数
+         */
+        private final AtomicInteger queueSize = new AtomicInteger();
+
+        /**
+         * 发送队列中的消息字节数
+         */
+        private final AtomicLong queueBytes = new AtomicLong();
+
+        /**
+         * 队首消息正在写出的视图，记录写出的位置，只在所属的反应器线程中访问
+         */
+        private ByteBuffer writeView;
+
+        /**
+         * 是否已经提交了写出任务到所属的反应器，避免重复提交
+         */
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+        /**
+         * 是否注册了 OP_WRITE，只在所属的反应器线程中访问
+         */
+        private boolean writePending;
+
+        /**
+         * 是否已经在反应器的待写出列表中，只在所属的反应器线程中访问
+         */
+        private boolean flushDeferred;
+
+        /**
+         * 发送队列写空之后是否关闭连接
+         */
+        private volatile boolean closeAfterFlush;
+
+        /**
+         * 是否已经登出，登出之后放入发送队列的消息由放入方归还
+         */
+        private volatile boolean closed;
+
+        /**
+         * 协商的压缩级别，0 表示不压缩，任意反应器线程广播时都会读取
+         */
+        private volatile int compressLevel;
+
+        /**
+         * 正在上传的文件，只在所属的反应器线程中访问
+         */
+        private ChatFileSpool.Upload upload;
+
+        /**
+         * 等待下载的文件，按请求顺序逐个写出，只在所属的反应器线程中访问
+         */
+        private final Deque<ChatFileTransfer> transfers = new ArrayDeque<>();
+
+        /**
+         * 帧解码器，累积该连接的半包
+         */
+        private final ChatFrameDecoder decoder = new ChatFrameDecoder(ChatFrameCodec.MAX_FRAME_LENGTH);
+
+        /**
+         * TLS 连接，没有开启 TLS 时为null，只在所属的反应器线程中访问
+         */
+        private final ChatTlsChannel tls;
+
+        public ChatUser(long id, SelectionKey key, ChatReactor reactor, ChatTlsChannel tls) {
+            this.id = id;
+            this.key = key;
+            this.reactor = reactor;
+            this.tls = tls;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getRoom() {
+            return room;
+        }
+
+        public void setRoom(String room) {
+            this.room = room;
         }
 
         public String getUsername() {
             return username;
         }
 
+        public void setUsername(String username) {
+            this.username = username;
+        }
+
+        public SelectionKey getKey() {
+            return key;
+        }
+
+        public ChatReactor getReactor() {
+            return reactor;
+        }
+
+        public ChatFrameDecoder getDecoder() {
+            return decoder;
+        }
+
+        public ChatTlsChannel getTls() {
+            return tls;
+        }
+
+        public Queue<ChatBuffer> getWriteQueue() {
+            return writeQueue;
+        }
+
+        public AtomicInteger getQueueSize() {
+            return queueSize;
+        }
+
+        public AtomicLong getQueueBytes() {
+            return queueBytes;
+        }
+
+        public ByteBuffer getWriteView() {
+            return writeView;
+        }
+
+        public void setWriteView(ByteBuffer writeView) {
+            this.writeView = writeView;
+        }
+
+        public AtomicBoolean getFlushScheduled() {
+            return flushScheduled;
+        }
+
+        public boolean isWritePending() {
+            return writePending;
+        }
+
+        public void setWritePending(boolean writePending) {
+            this.writePending = writePending;
+        }
+
+        public boolean isFlushDeferred() {
+            return flushDeferred;
+        }
+
+        public void setFlushDeferred(boolean flushDeferred) {
+            this.flushDeferred = flushDeferred;
+        }
+
+        public boolean isCloseAfterFlush() {
+            return closeAfterFlush;
+        }
+
+        public void setCloseAfterFlush(boolean closeAfterFlush) {
+            this.closeAfterFlush = closeAfterFlush;
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+        public void setClosed(boolean closed) {
+            this.closed = closed;
+        }
+
+        public int getCompressLevel() {
+            return compressLevel;
+        }
+
+        public void setCompressLevel(int compressLevel) {
+            this.compressLevel = compressLevel;
+        }
+
+        public ChatFileSpool.Upload getUpload() {
+            return upload;
+        }
+
+        public void setUpload(ChatFileSpool.Upload upload) {
+            this.upload = upload;
+        }
+
+        public Deque<ChatFileTransfer> getTransfers() {
+            return transfers;
+        }
+    }
+
+    /**
+     * 反应器，一个线程驱动一个选择器，并执行其他线程提交过来的任务
+     */
+    private static class ChatReactor implements Runnable {
+
+        private final Selector selector;
+
+        private final Thread thread;
+
+        /**
+         * 其他线程提交的任务，在选择器线程中执行
+         */
+        private final Queue<Runnable> taskQueue = new ConcurrentLinkedQueue<>();
+
+        /**
+         * 是否已经唤醒了选择器，避免每次提交任务都调用 wakeup
+         */
+        private final AtomicBoolean wakenUp = new AtomicBoolean();
+
+        /**
+         * 聚集写出时复用的视图数组，只在反应器线程中访问
+         */
+        private final ByteBuffer[] gatherViews = new ByteBuffer[MAX_GATHER_SIZE];
+
+        /**
+         * throughput 模式下等待写出的用户，只在反应器线程中访问
+         */
+        private List<ChatUser> deferredFlushes = new ArrayList<>();
+
+        /**
+         * 正在写出的一批用户，和待写出列表交替使用，避免每批都创建列表
+         */
+        private List<ChatUser> flushing = new ArrayList<>();
+
+        /**
+         * 待写出列表的写出时间
+         */
+        private long flushDeadline;
+
+        public ChatReactor(String name) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, name);
+        }
+
+        public Selector getSelector() {
+            return selector;
+        }
+
+        public ByteBuffer[] getGatherViews() {
+            return gatherViews;
+        }
+
         /**
-         * 随机一条回复消息
+         * 把用户加入待写出列表，同一个用户在一批中只加入一次
          *
-         * @return 回复消息，没有消息返回null
+         * @param chatUser 用户
          */
-        public String randomReplyMsg() {
-            if (this.replyMsgList.isEmpty()) {
-                return null;
+        public void deferFlush(ChatUser chatUser) {
+            if (chatUser.isFlushDeferred()) {
+                return;
             }
-            int i = random.nextInt(this.replyMsgList.size());
-            return this.replyMsgList.get(i);
+            if (deferredFlushes.isEmpty()) {
+                flushDeadline = System.nanoTime() + FLUSH_WINDOW_NANOS;
+            }
+            chatUser.setFlushDeferred(true);
+            deferredFlushes.add(chatUser);
+        }
+
+        public void start() {
+            thread.start();
         }
 
         /**
-         * 随机一条晚上回复的消息
+         * 当前线程是否为该反应器的线程
          *
-         * @return 晚上回复的消息，没有消息返回null
+         * @return 是返回true，否则返回false
          */
-        public String randomNightReplyMsg() {
-            if (this.nightReplyMsgList.isEmpty()) {
-                return null;
-            }
-            int i = random.nextInt(this.nightReplyMsgList.size());
-            return this.nightReplyMsgList.get(i);
+        public boolean inReactor() {
+            return Thread.currentThread() == thread;
         }
 
         /**
-         * 根据消息随机一条回复消息，
+         * 提交任务到反应器线程执行
          *
-         * @param msg 消息
-         * @return 没有命中关键字活着没有消息返回null
+         * @param task 任务
          */
-        public String randomKeyWordReplyMsg(String msg) {
-            if (this.keyWordReplyMsgMap.isEmpty()) {
-                return null;
-            }
-            // 触发关键字回复消息
-            for (Map.Entry<String, List<String>> entry : this.keyWordReplyMsgMap.entrySet()) {
-                if (msg.contains(entry.getKey())) {
-                    List<String> msgList = entry.getValue();
-                    int i = random.nextInt(msgList.size());
-                    return msgList.get(i);
-                }
+        public void execute(Runnable task) {
+            taskQueue.add(task);
+            if (!inReactor() && wakenUp.compareAndSet(false, true)) {
+                selector.wakeup();
             }
-            return null;
         }
-    }
 
-    /**
-     * 封装的 ChatUser
-     */
-    private static class ChatUser {
-
-        private String username;
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    if (deferredFlushes.isEmpty()) {
+                        selector.select();
+                    } else {
+                        // 最多等到攒批窗口结束
+                        long waitNanos = flushDeadline - System.nanoTime();
+                        if (waitNanos > 0) {
+                            selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos)));
+                        } else {
+                            selector.selectNow();
+                        }
+                    }
+                    long start = System.nanoTime();
+                    wakenUp.set(false);
+                    Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                    while (iterator.hasNext()) {
+                        SelectionKey key = iterator.next();
+                        iterator.remove();
+                        handleKey(key);
+                    }
+                    runTasks();
+                    if (!deferredFlushes.isEmpty() && System.nanoTime() - flushDeadline >= 0) {
+                        flushDeferred();
+                    }
+                    ChatMetrics.selectorLoop(System.nanoTime() - start);
+                }
+            } catch (Exception e) {
+                logInfo("【系统消息】聊天室发生了异常……");
+                e.printStackTrace();
+            } finally {
+                logInfo("【系统消息】正在关闭聊天室资源……");
+            }
+        }
 
-        public String getUsername() {
-            return username;
+        /**
+         * 写出待写出列表中所有用户积攒的消息，每个用户一次聚集写出
+         */
+        private void flushDeferred() {
+            // 写出时可能触发登出和新的广播，新加入的用户留到下一批
+            List<ChatUser> flushes = deferredFlushes;
+            deferredFlushes = flushing;
+            flushing = flushes;
+            for (ChatUser chatUser : flushes) {
+                chatUser.setFlushDeferred(false);
+                if (chatUser.isWritePending()) {
+                    continue;
+                }
+                try {
+                    flushMsg((SocketChannel) chatUser.getKey().channel(), chatUser);
+                } catch (Exception e) {
+                    logInfo("【系统消息】聊天室写出消息发生了异常……");
+                    e.printStackTrace();
+                }
+            }
+            flushes.clear();
         }
 
-        public void setUsername(String username) {
-            this.username = username;
+        /**
+         * 执行其他线程提交的任务
+         */
+        private void runTasks() {
+            Runnable task;
+            while ((task = taskQueue.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    logInfo("【系统消息】聊天室任务执行发生了异常……");
+                    e.printStackTrace();
+                }
+            }
         }
     }
 
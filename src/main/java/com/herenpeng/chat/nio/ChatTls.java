@@ -0,0 +1,171 @@
+package com.herenpeng.chat.nio;
+
+import com.herenpeng.chat.common.ChatMetrics;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TLS 的公共部分：SSLContext、加解密缓冲区池和执行握手委托任务的线程池，每个连接的加解密见{@link ChatTlsChannel}
+ * <p>通过 -Dchat.tls.enabled=true 开启，证书使用 JSSE 的标准参数：服务端通过 -Djavax.net.ssl.keyStore、
+ * -Djavax.net.ssl.keyStorePassword 指定证书，客户端通过 -Djavax.net.ssl.trustStore、
+ * -Djavax.net.ssl.trustStorePassword 指定信任的证书，客户端会校验证书中的主机名</p>
+ * <p>握手时的证书校验、密钥交换等委托任务比较耗时，服务端把它们交给单独的线程池执行，
+ * 线程数通过 -Dchat.tls.handshakeThreads 指定，默认为 CPU 核数，反应器线程不会因为握手而阻塞</p>
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public class ChatTls {
+
+    /**
+     * 是否开启 TLS
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("chat.tls.enabled");
+
+    /**
+     * 执行握手委托任务的线程数
+     */
+    public static final int HANDSHAKE_THREADS = Math.max(1,
+            Integer.getInteger("chat.tls.handshakeThreads", Runtime.getRuntime().availableProcessors()));
+
+    private final SSLContext context;
+
+    /**
+     * 执行握手委托任务
+     */
+    private final Executor executor;
+
+    /**
+     * 加解密缓冲区池，缓冲区能放下一条完整的 TLS 记录，连接空闲时缓冲区都归还给池
+     */
+    private final ByteBufferPool bufferPool;
+
+    private final LongAdder handshakeCount = new LongAdder();
+
+    private final LongAdder handshakeFailedCount = new LongAdder();
+
+    private final LongAdder delegatedTaskCount = new LongAdder();
+
+    private ChatTls(SSLContext context, Executor executor) {
+        this.context = context;
+        this.executor = executor;
+        SSLSession session = context.createSSLEngine().getSession();
+        this.bufferPool = new ByteBufferPool(Math.max(session.getPacketBufferSize(), session.getApplicationBufferSize()),
+                Integer.getInteger("chat.tls.threadCacheSize", 16),
+                Integer.getInteger("chat.tls.sharedSize", 256));
+    }
+
+    /**
+     * 创建服务端使用的 TLS，委托任务在单独的线程池中执行
+     *
+     * @return TLS
+     * @throws IOException 没有指定服务端证书，或者 SSLContext 初始化失败
+     */
+    public static ChatTls server() throws IOException {
+        if (System.getProperty("javax.net.ssl.keyStore") == null) {
+            throw new IOException("开启 TLS 需要通过 -Djavax.net.ssl.keyStore 指定服务端证书");
+        }
+        AtomicInteger threadId = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(HANDSHAKE_THREADS, HANDSHAKE_THREADS, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), task -> {
+            Thread thread = new Thread(task, "chat-tls-" + threadId.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        return new ChatTls(defaultContext(), executor);
+    }
+
+    /**
+     * 创建客户端使用的 TLS，客户端只有一个连接，委托任务直接在选择器线程中执行
+     *
+     * @return TLS
+     * @throws IOException SSLContext 初始化失败
+     */
+    public static ChatTls client() throws IOException {
+        return new ChatTls(defaultContext(), Runnable::run);
+    }
+
+    private static SSLContext defaultContext() throws IOException {
+        try {
+            return SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("初始化 TLS 失败：" + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 注册监控指标
+     */
+    public void start() {
+        ChatMetrics.registerGauge("tls_handshakes_total", handshakeCount::sum);
+        ChatMetrics.registerGauge("tls_handshake_failures_total", handshakeFailedCount::sum);
+        ChatMetrics.registerGauge("tls_delegated_tasks_total", delegatedTaskCount::sum);
+        ChatMetrics.registerGauge("tls_buffer_pool_hits_total", bufferPool::getHitCount);
+        ChatMetrics.registerGauge("tls_buffer_pool_misses_total", bufferPool::getMissCount);
+    }
+
+    /**
+     * 服务端接入的连接开始握手
+     *
+     * @param socket     连接
+     * @param onTaskDone 委托任务执行完成后的回调，在执行委托任务的线程中调用，需要回到连接所属的反应器线程继续握手
+     * @return 加密连接
+     * @throws IOException 握手开始失败
+     */
+    public ChatTlsChannel accept(SocketChannel socket, Runnable onTaskDone) throws IOException {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        return new ChatTlsChannel(this, socket, engine, onTaskDone);
+    }
+
+    /**
+     * 客户端连接开始握手，校验服务端证书中的主机名
+     *
+     * @param socket 连接
+     * @param host   服务端主机
+     * @param port   服务端端口
+     * @return 加密连接
+     * @throws IOException 握手开始失败
+     */
+    public ChatTlsChannel connect(SocketChannel socket, String host, int port) throws IOException {
+        SSLEngine engine = context.createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        engine.setSSLParameters(parameters);
+        return new ChatTlsChannel(this, socket, engine, () -> {
+        });
+    }
+
+    Executor getExecutor() {
+        return executor;
+    }
+
+    ByteBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    void handshakeFinished() {
+        handshakeCount.increment();
+    }
+
+    void handshakeFailed() {
+        handshakeFailedCount.increment();
+    }
+
+    void delegatedTask() {
+        delegatedTaskCount.increment();
+    }
+}
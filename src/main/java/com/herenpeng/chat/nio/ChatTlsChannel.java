@@ -0,0 +1,423 @@
+package com.herenpeng.chat.nio;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * 一个 TLS 连接，基于{@link SSLEngine}在非阻塞的{@link SocketChannel}上加解密，只在连接所属的反应器线程中访问
+ * <p>读写都不会阻塞：读到半条记录时留到下次可读；密文写不完时留在发送缓冲区中，调用者通过{@link #hasPendingOutput()}
+ * 判断是否需要等待可写。握手的委托任务交给{@link ChatTls}的线程池执行，执行期间读写都返回0，
+ * 执行完成后通过回调通知调用者回到反应器线程继续握手</p>
+ * <p>收发缓冲区都从{@link ChatTls}的缓冲区池中借出，用完立即归还，空闲的连接不占用缓冲区</p>
+ * <p>写出时直接加密调用者传入的帧，广播的消息只编码一次，每个连接各自加密；
+ * 聚集写出的多条小消息会合并到同一条 TLS 记录中</p>
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public class ChatTlsChannel implements ByteChannel, GatheringByteChannel {
+
+    private static final ByteBuffer[] EMPTY = {ByteBuffer.allocate(0)};
+
+    private final ChatTls tls;
+
+    private final SocketChannel socket;
+
+    private final SSLEngine engine;
+
+    private final ByteBufferPool pool;
+
+    /**
+     * 委托任务执行完成后的回调
+     */
+    private final Runnable onTaskDone;
+
+    /**
+     * 收到还没有解密的密文，处于写模式，可能只有半条记录，为空时归还缓冲区池
+     */
+    private ByteBuffer netIn;
+
+    /**
+     * 解密后还没有被读走的明文，处于写模式，为空时归还缓冲区池
+     */
+    private ByteBuffer appIn;
+
+    /**
+     * 加密后还没有写出的密文，处于读模式，写完时归还缓冲区池
+     */
+    private ByteBuffer netOut;
+
+    /**
+     * 是否有委托任务正在执行，委托任务执行完成时由线程池修改
+     */
+    private volatile boolean taskRunning;
+
+    private boolean handshakeComplete;
+
+    private boolean handshakeFailed;
+
+    /**
+     * 对端是否已经关闭，收到 close_notify 或者连接断开
+     */
+    private boolean inboundDone;
+
+    private boolean closed;
+
+    ChatTlsChannel(ChatTls tls, SocketChannel socket, SSLEngine engine, Runnable onTaskDone) throws IOException {
+        this.tls = tls;
+        this.socket = socket;
+        this.engine = engine;
+        this.pool = tls.getBufferPool();
+        this.onTaskDone = onTaskDone;
+        engine.beginHandshake();
+    }
+
+    public boolean isHandshakeComplete() {
+        return handshakeComplete;
+    }
+
+    /**
+     * 协商的协议版本
+     *
+     * @return 协议版本，比如 TLSv1.3
+     */
+    public String getProtocol() {
+        return engine.getSession().getProtocol();
+    }
+
+    /**
+     * 是否还有没写出的密文
+     *
+     * @return 有返回true，调用者需要等待可写后调用{@link #flush()}
+     */
+    public boolean hasPendingOutput() {
+        return netOut != null;
+    }
+
+    /**
+     * 推进握手，直到握手完成或者需要等待对端数据、等待可写、等待委托任务
+     * <p>握手完成时可能已经解密了对端紧接着发送的数据，调用者需要再调用一次{@link #read(ByteBuffer)}</p>
+     *
+     * @throws IOException 握手失败
+     */
+    public void handshake() throws IOException {
+        try {
+            while (!handshakeComplete && step()) {
+                // 继续握手
+            }
+        } catch (SSLException e) {
+            failed();
+            throw e;
+        }
+    }
+
+    /**
+     * 读取解密后的数据，必要时推进握手
+     *
+     * @param dst 明文写入的缓冲区
+     * @return 读到的字节数，0 表示暂时没有数据，-1 表示对端已经关闭
+     * @throws IOException 读取失败，或者数据不合法
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int n = 0;
+        try {
+            while (dst.hasRemaining()) {
+                if (appIn != null) {
+                    n += drain(dst);
+                } else if (!step()) {
+                    break;
+                }
+            }
+        } catch (SSLException e) {
+            failed();
+            throw e;
+        }
+        return n == 0 && inboundDone && appIn == null ? -1 : n;
+    }
+
+    /**
+     * 加密并写出，握手完成之前不写出任何数据
+     * <p>上一条记录的密文写完之后才加密下一条记录，所以最多只有一条记录的密文积压在发送缓冲区中</p>
+     *
+     * @param srcs   明文
+     * @param offset 第一个缓冲区的下标
+     * @param length 缓冲区数量
+     * @return 已经加密的明文字节数，这些明文的密文可能还没有全部写出
+     * @throws IOException 写出失败
+     */
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        if (!handshakeComplete) {
+            return 0;
+        }
+        long consumed = 0;
+        while (flush() && hasRemaining(srcs, offset, length)) {
+            consumed += wrap(srcs, offset, length);
+        }
+        return consumed;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return (int) write(new ByteBuffer[]{src}, 0, 1);
+    }
+
+    /**
+     * 写出积压的密文
+     *
+     * @return 全部写出返回true
+     * @throws IOException 写出失败
+     */
+    public boolean flush() throws IOException {
+        if (netOut == null) {
+            return true;
+        }
+        socket.write(netOut);
+        if (netOut.hasRemaining()) {
+            return false;
+        }
+        pool.release(netOut);
+        netOut = null;
+        return true;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed && socket.isOpen();
+    }
+
+    /**
+     * 关闭连接，尽量发送 close_notify 但不等待，归还所有缓冲区，并关闭 socket
+     *
+     * @throws IOException 关闭 socket 失败
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (!taskRunning && socket.isOpen()) {
+                engine.closeOutbound();
+                if (flush()) {
+                    wrap(EMPTY, 0, 1);
+                    flush();
+                }
+            }
+        } catch (IOException ignored) {
+            // 对端可能已经断开
+        } finally {
+            pool.release(netIn);
+            pool.release(appIn);
+            pool.release(netOut);
+            netIn = null;
+            appIn = null;
+            netOut = null;
+            socket.close();
+        }
+    }
+
+    /**
+     * 按引擎的状态推进一步：执行委托任务、发送握手消息，或者解密收到的数据
+     *
+     * @return 有进展返回true，需要等待对端数据、等待可写或者等待委托任务时返回false
+     * @throws IOException 读写失败，或者数据不合法
+     */
+    private boolean step() throws IOException {
+        if (taskRunning || inboundDone || closed) {
+            return false;
+        }
+        switch (engine.getHandshakeStatus()) {
+            case NEED_TASK:
+                runDelegatedTasks();
+                // 客户端在当前线程中执行委托任务，执行完可以直接继续
+                return !taskRunning;
+            case NEED_WRAP:
+                if (!flush()) {
+                    return false;
+                }
+                wrap(EMPTY, 0, 1);
+                flush();
+                return true;
+            default:
+                return unwrap();
+        }
+    }
+
+    /**
+     * 把握手的委托任务交给线程池执行，执行完成后回调
+     */
+    private void runDelegatedTasks() {
+        taskRunning = true;
+        tls.delegatedTask();
+        tls.getExecutor().execute(() -> {
+            try {
+                Runnable task;
+                while ((task = engine.getDelegatedTask()) != null) {
+                    task.run();
+                }
+            } finally {
+                taskRunning = false;
+                onTaskDone.run();
+            }
+        });
+    }
+
+    /**
+     * 加密一条记录放入发送缓冲区，调用前发送缓冲区必须已经写空
+     *
+     * @return 加密的明文字节数
+     * @throws IOException 加密失败
+     */
+    private long wrap(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        ByteBuffer buffer = pool.acquire();
+        SSLEngineResult result;
+        try {
+            result = engine.wrap(srcs, offset, length, buffer);
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                throw new SSLException("TLS 记录超过了缓冲区大小");
+            }
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED && !engine.isOutboundDone() && !closed) {
+                throw new SSLException("TLS 连接已经关闭");
+            }
+        } catch (IOException e) {
+            pool.release(buffer);
+            throw e;
+        }
+        buffer.flip();
+        if (buffer.hasRemaining()) {
+            netOut = buffer;
+        } else {
+            pool.release(buffer);
+        }
+        finished(result.getHandshakeStatus());
+        return result.bytesConsumed();
+    }
+
+    /**
+     * 解密缓冲的密文，密文不够一条记录时从 socket 读取
+     *
+     * @return 有进展返回true，没有新数据或者明文还没有被读走时返回false
+     * @throws IOException 读取失败，或者数据不合法
+     */
+    private boolean unwrap() throws IOException {
+        if (appIn != null) {
+            return false;
+        }
+        if (netIn == null) {
+            netIn = pool.acquire();
+        }
+        try {
+            if (netIn.position() > 0) {
+                ByteBuffer buffer = pool.acquire();
+                SSLEngineResult result;
+                netIn.flip();
+                try {
+                    result = engine.unwrap(netIn, buffer);
+                } catch (IOException e) {
+                    pool.release(buffer);
+                    throw e;
+                } finally {
+                    netIn.compact();
+                }
+                if (buffer.position() > 0) {
+                    appIn = buffer;
+                } else {
+                    pool.release(buffer);
+                }
+                switch (result.getStatus()) {
+                    case CLOSED:
+                        inboundDone = true;
+                        return false;
+                    case BUFFER_OVERFLOW:
+                        throw new SSLException("TLS 记录超过了缓冲区大小");
+                    case BUFFER_UNDERFLOW:
+                        if (!netIn.hasRemaining()) {
+                            throw new SSLException("TLS 记录超过了缓冲区大小");
+                        }
+                        break;
+                    default:
+                        finished(result.getHandshakeStatus());
+                        if (result.bytesConsumed() > 0 || result.bytesProduced() > 0) {
+                            return true;
+                        }
+                }
+            }
+            int n = socket.read(netIn);
+            if (n < 0) {
+                inboundDone = true;
+                try {
+                    engine.closeInbound();
+                } catch (SSLException ignored) {
+                    // 对端没有发送 close_notify 就断开了
+                }
+                return false;
+            }
+            return n > 0;
+        } finally {
+            if (netIn != null && netIn.position() == 0) {
+                pool.release(netIn);
+                netIn = null;
+            }
+        }
+    }
+
+    /**
+     * 把解密后的明文复制到调用者的缓冲区
+     */
+    private int drain(ByteBuffer dst) {
+        appIn.flip();
+        int n = Math.min(appIn.remaining(), dst.remaining());
+        int limit = appIn.limit();
+        appIn.limit(appIn.position() + n);
+        dst.put(appIn);
+        appIn.limit(limit);
+        appIn.compact();
+        if (appIn.position() == 0) {
+            pool.release(appIn);
+            appIn = null;
+        }
+        return n;
+    }
+
+    private void finished(SSLEngineResult.HandshakeStatus status) {
+        if (!handshakeComplete && !closed && (status == SSLEngineResult.HandshakeStatus.FINISHED
+                || status == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING)) {
+            handshakeComplete = true;
+            tls.handshakeFinished();
+        }
+    }
+
+    private void failed() {
+        if (!handshakeComplete && !handshakeFailed) {
+            handshakeFailed = true;
+            tls.handshakeFailed();
+        }
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] srcs, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (srcs[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
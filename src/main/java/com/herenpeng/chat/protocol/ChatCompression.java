@@ -0,0 +1,175 @@
+package com.herenpeng.chat.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 消息压缩，连接建立后由客户端协商开启
+ * <p>客户端在登录前发送{@link ChatFrameCodec#TYPE_SETTINGS}帧，内容为“compress=deflate;level=6”；
+ * 服务端同意后回复一个{@link ChatFrameCodec#TYPE_SETTINGS}帧，第一行是最终使用的设置，之后是预置字典，
+ * 此后发给该客户端的文本消息可能以{@link ChatFrameCodec#TYPE_COMPRESSED_TEXT}帧发送</p>
+ * <p>每条消息单独压缩，不依赖前面的消息，所以同一条广播消息只需要按压缩级别压缩一次，所有使用相同设置的接收者共享压缩结果。
+ * 单条聊天消息很短，单独压缩几乎没有效果，所以压缩时使用服务端的固定文本（分隔符、系统消息前缀、机器人语录等）作为预置字典</p>
+ * <p>压缩帧内容：4 字节原文长度 + 不带 zlib 头的 deflate 数据</p>
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public final class ChatCompression {
+
+    public static final String DEFLATE = "deflate";
+
+    public static final String NONE = "none";
+
+    public static final int DEFAULT_LEVEL = 6;
+
+    /**
+     * deflate 的窗口大小，字典超过窗口的部分用不上
+     */
+    private static final int MAX_DICTIONARY_LENGTH = 32 * 1024;
+
+    /**
+     * 压缩器创建和初始化的开销比较大，每个线程每个压缩级别复用一个
+     */
+    private static final ThreadLocal<Deflater[]> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater[Deflater.BEST_COMPRESSION + 1]);
+
+    private ChatCompression() {
+    }
+
+    /**
+     * 协商设置的文本
+     *
+     * @param level 压缩级别，小于等于0表示不压缩
+     * @return 设置文本，比如“compress=deflate;level=6”
+     */
+    public static String settings(int level) {
+        return level <= 0 ? "compress=" + NONE : "compress=" + DEFLATE + ";level=" + level;
+    }
+
+    /**
+     * 解析协商设置中的压缩级别，不认识的设置忽略
+     *
+     * @param settings 设置文本
+     * @return 压缩级别，1 到 9，不压缩返回0
+     */
+    public static int parseLevel(String settings) {
+        boolean deflate = false;
+        int level = DEFAULT_LEVEL;
+        for (String item : settings.trim().split(";")) {
+            int eq = item.indexOf('=');
+            if (eq < 0) {
+                continue;
+            }
+            String key = item.substring(0, eq).trim();
+            String value = item.substring(eq + 1).trim();
+            if ("compress".equals(key)) {
+                deflate = DEFLATE.equals(value);
+            } else if ("level".equals(key)) {
+                try {
+                    level = Integer.parseInt(value);
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return deflate ? Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, level)) : 0;
+    }
+
+    /**
+     * 构建预置字典，越常用的片段越应该放在后面，deflate 匹配距离越近编码越短
+     *
+     * @param fragments 字典片段
+     * @return 字典，超过 32KB 时只保留最后 32KB
+     */
+    public static byte[] buildDictionary(List<String> fragments) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String fragment : fragments) {
+            byte[] bytes = fragment.getBytes(StandardCharsets.UTF_8);
+            out.write(bytes, 0, bytes.length);
+        }
+        byte[] dictionary = out.toByteArray();
+        return dictionary.length <= MAX_DICTIONARY_LENGTH ? dictionary
+                : Arrays.copyOfRange(dictionary, dictionary.length - MAX_DICTIONARY_LENGTH, dictionary.length);
+    }
+
+    /**
+     * 压缩一帧文本消息
+     *
+     * @param text       文本消息的 UTF-8 内容，不会修改它的读写位置
+     * @param level      压缩级别
+     * @param dictionary 预置字典
+     * @return 已经 flip 过的{@link ChatFrameCodec#TYPE_COMPRESSED_TEXT}帧，压缩后没有变小返回null
+     */
+    public static ByteBuffer deflate(ByteBuffer text, int level, byte[] dictionary) {
+        byte[] input = new byte[text.remaining()];
+        text.duplicate().get(input);
+        Deflater[] deflaters = DEFLATERS.get();
+        Deflater deflater = deflaters[level];
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+            deflaters[level] = deflater;
+        }
+        deflater.reset();
+        deflater.setDictionary(dictionary);
+        deflater.setInput(input);
+        deflater.finish();
+        // 帧头 + 原文长度，压缩结果不能比原文长，否则直接发送原文
+        int prefix = ChatFrameCodec.HEADER_LENGTH + 4;
+        byte[] frame = new byte[prefix + input.length];
+        int length = prefix;
+        while (!deflater.finished() && length < frame.length) {
+            length += deflater.deflate(frame, length, frame.length - length);
+        }
+        if (!deflater.finished()) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(frame, 0, length);
+        buffer.putInt(0, length - ChatFrameCodec.HEADER_LENGTH).put(4, ChatFrameCodec.TYPE_COMPRESSED_TEXT).putInt(5, input.length);
+        return buffer;
+    }
+
+    /**
+     * 解压一帧压缩的文本消息
+     *
+     * @param payload    帧内容
+     * @param dictionary 协商时收到的预置字典
+     * @param inflater   解压器，可以复用，不带 zlib 头
+     * @return 文本消息
+     * @throws IOException 数据不合法
+     */
+    public static String inflate(byte[] payload, byte[] dictionary, Inflater inflater) throws IOException {
+        if (payload.length < 4) {
+            throw new IOException("压缩消息不完整");
+        }
+        int length = ByteBuffer.wrap(payload).getInt();
+        if (length < 0 || length > ChatFrameCodec.MAX_SERVER_FRAME_LENGTH) {
+            throw new IOException("非法的压缩消息长度：" + length);
+        }
+        byte[] text = new byte[length];
+        inflater.reset();
+        inflater.setDictionary(dictionary);
+        inflater.setInput(payload, 4, payload.length - 4);
+        try {
+            int n = 0;
+            while (n < length) {
+                int inflated = inflater.inflate(text, n, length - n);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += inflated;
+            }
+            if (n != length) {
+                throw new IOException("压缩消息长度不一致：" + n + "/" + length);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("压缩消息格式错误：" + e.getMessage());
+        }
+        return new String(text, StandardCharsets.UTF_8);
+    }
+}
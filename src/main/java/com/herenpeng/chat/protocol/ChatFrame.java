@@ -0,0 +1,44 @@
+package com.herenpeng.chat.protocol;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 聊天室协议帧，一帧对应一条完整的消息
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public class ChatFrame {
+
+    /**
+     * 帧类型，见 {@link ChatFrameCodec} 中的 TYPE_ 常量
+     */
+    private final byte type;
+
+    /**
+     * 帧内容
+     */
+    private final byte[] payload;
+
+    public ChatFrame(byte type, byte[] payload) {
+        this.type = type;
+        this.payload = payload;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * 以 UTF-8 解码帧内容
+     *
+     * @return 文本消息
+     */
+    public String getText() {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,212 @@
+package com.herenpeng.chat.protocol;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 聊天室协议编解码器
+ * <p>帧格式：4 字节内容长度 + 1 字节帧类型 + 内容，长度不包含帧头</p>
+ * <p>TCP 是字节流，没有消息边界，必须依靠长度前缀才能正确拆分粘包和半包</p>
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public class ChatFrameCodec {
+
+    /**
+     * 帧头长度：4 字节长度 + 1 字节类型
+     */
+    public static final int HEADER_LENGTH = 5;
+
+    /**
+     * 服务端接收的帧内容最大长度，默认 64KB，可以通过 -Dchat.frame.maxLength 修改
+     */
+    public static final int MAX_FRAME_LENGTH = Integer.getInteger("chat.frame.maxLength", 64 * 1024);
+
+    /**
+     * 客户端接收的帧内容最大长度，成员列表等系统消息会随人数增长，所以比服务端宽松
+     */
+    public static final int MAX_SERVER_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * 文本消息
+     */
+    public static final byte TYPE_TEXT = 1;
+
+    /**
+     * 文件描述，客户端上传时内容为“文件大小\n文件名”，服务端下发时内容为“文件 id\n文件大小\n文件名”，
+     * 之后紧跟着若干个{@link #TYPE_FILE_CHUNK}帧，内容长度加起来等于文件大小
+     */
+    public static final byte TYPE_FILE_OFFER = 2;
+
+    /**
+     * 文件数据块，内容为文件的一段原始字节
+     */
+    public static final byte TYPE_FILE_CHUNK = 3;
+
+    /**
+     * 连接设置，客户端登录前发送，服务端回复最终使用的设置，见{@link ChatCompression}
+     */
+    public static final byte TYPE_SETTINGS = 4;
+
+    /**
+     * 压缩的文本消息，只发给协商开启了压缩的客户端，见{@link ChatCompression}
+     */
+    public static final byte TYPE_COMPRESSED_TEXT = 5;
+
+    /**
+     * UTF-8 编码器，编码器不是线程安全的，每个线程一个
+     */
+    private static final ThreadLocal<CharsetEncoder> UTF8_ENCODER = ThreadLocal.withInitial(() ->
+            StandardCharsets.UTF_8.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE));
+
+    private ChatFrameCodec() {
+    }
+
+    /**
+     * 编码一帧
+     *
+     * @param type    帧类型
+     * @param payload 帧内容
+     * @return 已经 flip 过，可以直接写出的 ByteBuffer
+     */
+    public static ByteBuffer encode(byte type, byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + payload.length);
+        buffer.putInt(payload.length).put(type).put(payload);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 编码一条文本消息
+     *
+     * @param msg 文本消息
+     * @return 已经 flip 过，可以直接写出的 ByteBuffer
+     */
+    public static ByteBuffer encodeText(String msg) {
+        return encode(TYPE_TEXT, msg.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 将一条文本消息直接编码到目标缓冲区中，不产生中间的字节数组
+     *
+     * @param msg 文本消息
+     * @param dst 目标缓冲区，处于写模式，编码成功后 position 移动到帧的末尾
+     * @return 编码成功返回true，目标缓冲区空间不足返回false，此时目标缓冲区的 position 不变
+     */
+    public static boolean encodeText(String msg, ByteBuffer dst) {
+        int start = dst.position();
+        if (dst.remaining() < HEADER_LENGTH) {
+            return false;
+        }
+        dst.position(start + HEADER_LENGTH);
+        CharsetEncoder encoder = UTF8_ENCODER.get().reset();
+        CoderResult result = encoder.encode(CharBuffer.wrap(msg), dst, true);
+        if (!result.isUnderflow() || !encoder.flush(dst).isUnderflow()) {
+            dst.position(start);
+            return false;
+        }
+        int length = dst.position() - start - HEADER_LENGTH;
+        dst.putInt(start, length).put(start + 4, TYPE_TEXT);
+        return true;
+    }
+
+    /**
+     * 编码一个帧头，帧内容单独写出，比如直接从文件传输到 socket 的文件数据块
+     *
+     * @param type   帧类型
+     * @param length 帧内容长度
+     * @return 已经 flip 过，可以直接写出的帧头
+     */
+    public static ByteBuffer encodeHeader(byte type, int length) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(length).put(type);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * 阻塞写出一条文本消息，帧头和内容一次写出
+     *
+     * @param os  输出流
+     * @param msg 文本消息
+     * @throws IOException 抛出异常
+     */
+    public static void writeText(OutputStream os, String msg) throws IOException {
+        write(os, encodeText(msg));
+    }
+
+    /**
+     * 阻塞写出一帧编码好的消息，不会修改 frame 的读写位置，同一帧可以重复写给多个连接
+     *
+     * @param os    输出流
+     * @param frame 编码好的消息帧
+     * @throws IOException 抛出异常
+     */
+    public static void write(OutputStream os, ByteBuffer frame) throws IOException {
+        append(os, frame);
+        os.flush();
+    }
+
+    /**
+     * 写入一帧编码好的消息但不刷新输出流，多帧写入带缓冲的输出流后再一次刷新，只需要一次系统调用
+     *
+     * @param os    输出流
+     * @param frame 编码好的消息帧，不会修改它的读写位置
+     * @throws IOException 抛出异常
+     */
+    public static void append(OutputStream os, ByteBuffer frame) throws IOException {
+        if (frame.hasArray()) {
+            os.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+        } else {
+            byte[] bytes = new byte[frame.remaining()];
+            frame.duplicate().get(bytes);
+            os.write(bytes);
+        }
+    }
+
+    /**
+     * 阻塞读取一帧
+     *
+     * @param is        输入流
+     * @param maxLength 允许的帧内容最大长度
+     * @return 读取到的帧，连接已经关闭返回null
+     * @throws IOException 帧长度非法或者连接在一帧中间断开
+     */
+    public static ChatFrame readFrame(DataInputStream is, int maxLength) throws IOException {
+        int length;
+        try {
+            length = is.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        checkFrameLength(length, maxLength);
+        byte type = is.readByte();
+        byte[] payload = new byte[length];
+        is.readFully(payload);
+        return new ChatFrame(type, payload);
+    }
+
+    /**
+     * 校验帧内容长度，用于解码时校验对端发送的长度
+     *
+     * @param length    帧内容长度
+     * @param maxLength 允许的帧内容最大长度
+     * @throws IOException 长度非法
+     */
+    static void checkFrameLength(int length, int maxLength) throws IOException {
+        if (length < 0 || length > maxLength) {
+            throw new IOException("非法的消息长度：" + length + "，最大长度为：" + maxLength);
+        }
+    }
+}
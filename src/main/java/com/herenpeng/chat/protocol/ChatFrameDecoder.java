@@ -0,0 +1,82 @@
+package com.herenpeng.chat.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * 帧解码器，每个连接一个，负责累积半包，拆分粘包
+ * <p>非线程安全，只能在连接所属的读线程中使用</p>
+ *
+ * @author herenpeng
+ * @since 2026-10-17
+ */
+public class ChatFrameDecoder {
+
+    /**
+     * 初始累积缓冲区大小
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * 允许的帧内容最大长度
+     */
+    private final int maxFrameLength;
+
+    /**
+     * 累积缓冲区，始终处于写模式
+     */
+    private ByteBuffer cumulation = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+    public ChatFrameDecoder(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * 解码读取到的数据，完整的帧放入 out，不完整的部分留到下次继续累积
+     *
+     * @param in  本次读取到的数据，处于读模式，会被全部消费
+     * @param out 解码出的完整帧
+     * @throws IOException 帧长度非法
+     */
+    public void decode(ByteBuffer in, List<ChatFrame> out) throws IOException {
+        ensureWritable(in.remaining());
+        cumulation.put(in);
+        cumulation.flip();
+        try {
+            while (cumulation.remaining() >= ChatFrameCodec.HEADER_LENGTH) {
+                int start = cumulation.position();
+                int length = cumulation.getInt(start);
+                ChatFrameCodec.checkFrameLength(length, maxFrameLength);
+                if (cumulation.remaining() < ChatFrameCodec.HEADER_LENGTH + length) {
+                    // 半包，等待下次读取
+                    break;
+                }
+                byte type = cumulation.get(start + 4);
+                byte[] payload = new byte[length];
+                cumulation.position(start + ChatFrameCodec.HEADER_LENGTH);
+                cumulation.get(payload);
+                out.add(new ChatFrame(type, payload));
+            }
+        } finally {
+            cumulation.compact();
+        }
+    }
+
+    /**
+     * 保证累积缓冲区还可以写入指定长度的数据，不够时扩容
+     *
+     * @param length 需要写入的长度
+     */
+    private void ensureWritable(int length) {
+        if (cumulation.remaining() >= length) {
+            return;
+        }
+        int required = cumulation.position() + length;
+        int capacity = Math.max(required, cumulation.capacity() << 1);
+        ByteBuffer newCumulation = ByteBuffer.allocate(capacity);
+        cumulation.flip();
+        newCumulation.put(cumulation);
+        cumulation = newCumulation;
+    }
+}